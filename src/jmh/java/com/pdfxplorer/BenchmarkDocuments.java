@@ -0,0 +1,69 @@
+package com.pdfxplorer;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * The documents benchmarks run on: the file given as their "file" parameter,
+ * or else a generated document of lorem ipsum text.
+ */
+public final class BenchmarkDocuments {
+    private static final String[] WORDS = ("lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod "
+            + "tempor incididunt ut labore et dolore magna aliqua enim ad minim veniam quis nostrud exercitation "
+            + "ullamco laboris nisi aliquip ex ea commodo consequat").split(" ");
+    private static final int LINES_PER_PAGE = 50;
+    private static final int WORDS_PER_LINE = 12;
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * Returns the named file, or generates a document with the given number
+     * of pages if the name is empty. Generated files are deleted on exit.
+     */
+    public static File resolve(String file, int generatedPages) throws IOException {
+        if (!file.isEmpty()) {
+            File pdfFile = new File(file);
+            if (!pdfFile.isFile()) {
+                throw new IOException("No such file: " + pdfFile);
+            }
+            return pdfFile;
+        }
+
+        Path target = Files.createTempFile("pdfxplorer-benchmark-", ".pdf");
+        target.toFile().deleteOnExit();
+        Random random = new Random(generatedPages);
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (int i = 0; i < generatedPages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(font, 10);
+                    content.newLineAtOffset(50, 740);
+                    for (int line = 0; line < LINES_PER_PAGE; line++) {
+                        StringBuilder text = new StringBuilder();
+                        for (int word = 0; word < WORDS_PER_LINE; word++) {
+                            text.append(word == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+                        }
+                        content.showText(text.toString());
+                        content.newLineAtOffset(0, -14);
+                    }
+                    content.endText();
+                }
+            }
+            document.save(target.toFile());
+        }
+        return target.toFile();
+    }
+}
@@ -0,0 +1,99 @@
+package com.pdfxplorer.pdf;
+
+import com.pdfxplorer.BenchmarkDocuments;
+import javafx.scene.image.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the pages of a document with each engine, to decide which engine
+ * suits which documents: one page at a time for the latency of a page, and
+ * all pages at once for the throughput of the engine's workers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+    private static final int GENERATED_PAGES = 20;
+
+    // A PDF to render; empty for a generated document
+    @Param("")
+    public String file;
+
+    @Param({ "PDFBOX", "MUPDF" })
+    public RoutingPageRenderer.Engine engine;
+
+    // Pixels per point
+    @Param("2.0")
+    public double zoom;
+
+    private RoutingPageRenderer routingRenderer;
+    private PageRenderer renderer;
+    private String pdfPath;
+    private int pageCount;
+    private int nextPage = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pdfPath = BenchmarkDocuments.resolve(file, GENERATED_PAGES).getAbsolutePath();
+        routingRenderer = new RoutingPageRenderer();
+        renderer = routingRenderer.getRenderer(engine);
+        if (engine == RoutingPageRenderer.Engine.MUPDF && !(renderer instanceof PythonPdfRenderer)) {
+            routingRenderer.close();
+            throw new IllegalStateException("MuPDF workers are not available");
+        }
+        pageCount = renderer.getDocumentInfo(pdfPath).get().get("page_count").asInt();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        routingRenderer.close();
+    }
+
+    /**
+     * One page after the other, going round the document.
+     */
+    @Benchmark
+    public Image renderPage() throws Exception {
+        Image image = renderer.renderPage(pdfPath, nextPage, zoom).get();
+        nextPage = (nextPage + 1) % pageCount;
+        return image;
+    }
+
+    /**
+     * Every page requested at once, as fast as the engine's workers allow.
+     * Returns the number of pixels rendered.
+     */
+    @Benchmark
+    public long renderDocument() throws Exception {
+        List<CompletableFuture<Image>> renders = new ArrayList<>(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            renders.add(renderer.renderPage(pdfPath, i, zoom));
+        }
+        long pixels = 0;
+        for (CompletableFuture<Image> render : renders) {
+            Image image = render.get();
+            pixels += (long) (image.getWidth() * image.getHeight());
+        }
+        return pixels;
+    }
+}
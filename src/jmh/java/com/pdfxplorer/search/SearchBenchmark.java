@@ -0,0 +1,187 @@
+package com.pdfxplorer.search;
+
+import com.pdfxplorer.BenchmarkDocuments;
+import com.pdfxplorer.service.PdfReaderService;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times a search of every page of a document through the old match path,
+ * which recompiled the pattern for every text run and walked the run's
+ * TextPositions from the start for every match, against the text index with
+ * its cached pattern and binary-searched glyph offsets.
+ *
+ * The old path ran inside a PDFTextStripper, so it is timed with the
+ * stripper and, on text runs captured once, without it. Run with -prof gc
+ * for the allocation per search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    private static final int GENERATED_PAGES = 200;
+
+    // A PDF to search; empty for a generated document
+    @Param("")
+    public String file;
+
+    @Param("dolor")
+    public String query;
+
+    /**
+     * The text and positions PDFTextStripper hands to writeString().
+     */
+    private static final class TextRun {
+        private final String text;
+        private final List<TextPosition> positions;
+
+        TextRun(String text, List<TextPosition> positions) {
+            this.text = text;
+            this.positions = positions;
+        }
+    }
+
+    private PDDocument document;
+    private PDFSearchEngine.SearchOptions options;
+    private List<TextRun> runs;
+    private DocumentTextIndex index;
+    private PDFSearchEngine sequential;
+    private PDFSearchEngine parallel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        document = PdfReaderService.loadDocument(BenchmarkDocuments.resolve(file, GENERATED_PAGES));
+        options = new PDFSearchEngine.SearchOptions(query, false, true);
+        runs = new ArrayList<>();
+        strip(document, (text, positions) -> runs.add(new TextRun(text, new ArrayList<>(positions))));
+        index = DocumentTextIndex.build(document);
+        sequential = new PDFSearchEngine(1);
+        parallel = new PDFSearchEngine();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sequential.close();
+        parallel.close();
+        document.close();
+    }
+
+    @Benchmark
+    public int stripperOnly() throws IOException {
+        int[] runCount = { 0 };
+        strip(document, (text, positions) -> runCount[0]++);
+        return runCount[0];
+    }
+
+    @Benchmark
+    public int oldPath() throws IOException {
+        int[] hits = { 0 };
+        strip(document, (text, positions) -> hits[0] += oldMatch(options, text, positions));
+        return hits[0];
+    }
+
+    @Benchmark
+    public int oldPathMatchCodeOnly() {
+        int hits = 0;
+        for (TextRun run : runs) {
+            hits += oldMatch(options, run.text, run.positions);
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int indexRecompilePerPage() {
+        int hits = 0;
+        for (int i = 0; i < index.getPageCount(); i++) {
+            DocumentTextIndex.PageText page = index.getPage(i);
+            Matcher matcher = options.createSearchPattern().matcher(page.getText());
+            while (matcher.find()) {
+                if (page.glyphBoxes(matcher.start(), matcher.end()).length > 0) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public List<PDFSearchEngine.SearchResult> indexCachedPattern() {
+        return sequential.search(index, options);
+    }
+
+    @Benchmark
+    public List<PDFSearchEngine.SearchResult> indexCachedPatternParallel() {
+        return parallel.search(index, options);
+    }
+
+    private interface RunConsumer {
+        void accept(String text, List<TextPosition> positions);
+    }
+
+    /**
+     * Strips every page on its own, as the engine did before the text index.
+     */
+    private static void strip(PDDocument document, RunConsumer consumer) throws IOException {
+        PDFTextStripper stripper = new PDFTextStripper() {
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) {
+                consumer.accept(text, textPositions);
+            }
+        };
+        for (int i = 0; i < document.getNumberOfPages(); i++) {
+            stripper.setStartPage(i + 1);
+            stripper.setEndPage(i + 1);
+            stripper.getText(document);
+        }
+    }
+
+    /**
+     * The match code of the old path for one text run.
+     */
+    private static int oldMatch(PDFSearchEngine.SearchOptions options, String text,
+            List<TextPosition> textPositions) {
+        int hits = 0;
+        Pattern pattern = options.createSearchPattern();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            int matchStart = matcher.start();
+            int matchEnd = matcher.end();
+            List<TextPosition> matchPositions = new ArrayList<>();
+            int currentPos = 0;
+            for (TextPosition position : textPositions) {
+                if (currentPos >= matchStart && currentPos < matchEnd) {
+                    matchPositions.add(position);
+                }
+                currentPos += position.getUnicode().length();
+            }
+            if (!matchPositions.isEmpty()) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -1,24 +1,44 @@
 package com.pdfxplorer;
 
-import javafx.embed.swing.SwingFXUtils;
+import com.pdfxplorer.cache.PageImageCache;
+import com.pdfxplorer.pdf.PdfBoxPageRenderer;
+import com.pdfxplorer.pdf.RenderScheduler;
+import com.pdfxplorer.search.DocumentTextIndex;
+import com.pdfxplorer.text.GlyphGrid;
+import com.pdfxplorer.text.TextLayerService;
+import com.pdfxplorer.view.HighlightOverlay;
+import com.pdfxplorer.view.TileGrid;
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Cursor;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
 import javafx.scene.shape.Rectangle;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.rendering.PDFRenderer;
-import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.pdfbox.text.TextPosition;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A custom PDF page view that supports highlighting.
@@ -28,8 +48,8 @@ import java.util.List;
 public class PDFPageView extends StackPane {
     private int pageIndex;
     private ImageView pageImageView;
-    private List<Rectangle> highlights = new ArrayList<>();
-    private float currentZoom = 1.0f;
+    // All search highlights of the page, drawn on one canvas
+    private final HighlightOverlay highlightOverlay = new HighlightOverlay();
     private double pageWidth;
     private double pageHeight;
     private static final float PDF_UNITS_PER_POINT = 72.0f;
@@ -37,12 +57,30 @@ public class PDFPageView extends StackPane {
     // Text selection
     private Point2D selectionStart;
     private Rectangle selectionRect;
-    private List<TextPosition> pageTextPositions = new ArrayList<>();
     private PDDocument document;
     private double displayScale;
+    // Glyph boxes of the page, extracted once in the background when the pointer first reaches it
+    private CompletableFuture<GlyphGrid> glyphGrid;
+    private GlyphGrid.Selection glyphSelection;
+    private Path selectedGlyphPath;
+    private Pane selectionLayer;
 
     private int rotation = 0;
 
+    // Tiled mode for pages too large to render as one image
+    private Pane tileLayer;
+    // Rendered pixels per PDF point at the current zoom
+    private float pixelsPerPoint;
+    private boolean tiled = false;
+    private final Map<PageImageCache.Key, ImageView> tileViews = new HashMap<>();
+    private final Map<PageImageCache.Key, CompletableFuture<Image>> tileRenders = new HashMap<>();
+    // Where tiles come from; without a source a tiled page shows only its base image
+    private String tilePdfPath;
+    private long tilePdfLastModified;
+    private RenderScheduler tileScheduler;
+    private RenderScheduler.Generation tileGeneration;
+    private PageImageCache tileCache;
+
     public PDFPageView(int pageIndex) {
         this.pageIndex = pageIndex;
         this.setAlignment(Pos.CENTER);
@@ -57,6 +95,16 @@ public class PDFPageView extends StackPane {
         selectionRect.setVisible(false);
         selectionRect.setMouseTransparent(true);
 
+        // The whole selection is one path, however many glyphs it covers
+        selectedGlyphPath = new Path();
+        selectedGlyphPath.setFill(Color.DODGERBLUE.deriveColor(0, 1, 1, 0.35));
+        selectedGlyphPath.setStroke(null);
+
+        // Laid out over the page image so both use the image view's coordinates
+        selectionLayer = new Pane(selectedGlyphPath, selectionRect);
+        selectionLayer.setMouseTransparent(true);
+
+        this.setOnMouseEntered(event -> requestGlyphGrid());
         this.setOnMousePressed(this::handleMousePressed);
         this.setOnMouseDragged(this::handleMouseDragged);
         this.setOnMouseReleased(this::handleMouseReleased);
@@ -64,9 +112,12 @@ public class PDFPageView extends StackPane {
     }
 
     private void handleMousePressed(MouseEvent event) {
+        if (pageImageView == null)
+            return;
+
         // Clear previous selection
-        selectionRect.setVisible(false);
-        pageTextPositions.clear();
+        clearSelection();
+        requestGlyphGrid();
 
         // Get mouse position relative to the ImageView
         Point2D imageViewPoint = pageImageView.sceneToLocal(event.getSceneX(), event.getSceneY());
@@ -78,12 +129,16 @@ public class PDFPageView extends StackPane {
         selectionRect.setWidth(0);
         selectionRect.setHeight(0);
 
-        if (!this.getChildren().contains(selectionRect)) {
-            this.getChildren().add(selectionRect);
+        if (!this.getChildren().contains(selectionLayer)) {
+            sizeOverlay(selectionLayer);
+            this.getChildren().add(selectionLayer);
         }
     }
 
     private void handleMouseDragged(MouseEvent event) {
+        if (selectionStart == null)
+            return;
+
         // Get mouse position relative to the ImageView
         Point2D imageViewPoint = pageImageView.sceneToLocal(event.getSceneX(), event.getSceneY());
 
@@ -98,6 +153,9 @@ public class PDFPageView extends StackPane {
         selectionRect.setWidth(width);
         selectionRect.setHeight(height);
         selectionRect.setVisible(true);
+
+        // A grid lookup per drag event, so the selection follows the pointer
+        updateSelectedGlyphs();
     }
 
     private void handleMouseReleased(MouseEvent event) {
@@ -106,87 +164,161 @@ public class PDFPageView extends StackPane {
         }
     }
 
-    private void copySelectedText() {
-        if (document == null)
-            return;
+    private void clearSelection() {
+        selectionRect.setVisible(false);
+        selectionStart = null;
+        if (glyphSelection != null) {
+            glyphSelection.clear();
+        }
+        selectedGlyphPath.getElements().clear();
+    }
 
-        try {
-            PDFTextStripper stripper = new PDFTextStripper() {
-                @Override
-                protected void processTextPosition(TextPosition text) {
-                    // Convert PDF coordinates to view coordinates
-                    double scaleFactor = displayScale * 2; // Account for the DPI scaling
-                    double viewX = text.getXDirAdj() * scaleFactor;
-                    double viewY = (pageHeight / (PDF_UNITS_PER_POINT * 2) - text.getYDirAdj()) * scaleFactor;
-
-                    // Check if the text position is within the selection rectangle
-                    if (isPointInSelection(viewX, viewY)) {
-                        pageTextPositions.add(text);
-                    }
+    private CompletableFuture<GlyphGrid> requestGlyphGrid() {
+        if (glyphGrid == null && document != null) {
+            PDDocument doc = document;
+            int page = pageIndex;
+            glyphGrid = CompletableFuture.supplyAsync(() -> {
+                // Shared with search; the service locks the document, as rendering does
+                try {
+                    return GlyphGrid.build(TextLayerService.getDefault().getPage(doc, page));
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to extract text of page " + (page + 1), e);
                 }
-            };
+            });
+        }
+        return glyphGrid;
+    }
 
-            stripper.setStartPage(pageIndex + 1);
-            stripper.setEndPage(pageIndex + 1);
-            stripper.getText(document);
+    private double viewUnitsPerPoint() {
+        return pageImageView.getLayoutBounds().getWidth() * pixelsPerPoint / pageWidth;
+    }
 
-            if (!pageTextPositions.isEmpty()) {
-                // Sort text positions by their coordinates
-                pageTextPositions.sort((a, b) -> {
-                    int yCompare = Float.compare(a.getYDirAdj(), b.getYDirAdj());
-                    return yCompare != 0 ? -yCompare : Float.compare(a.getXDirAdj(), b.getXDirAdj());
-                });
+    private void updateSelectedGlyphs() {
+        if (glyphGrid == null || !glyphGrid.isDone() || glyphGrid.isCompletedExceptionally())
+            return; // Still extracting; the release picks the selection up once it is done
 
-                // Build selected text
-                StringBuilder selectedText = new StringBuilder();
-                float lastY = pageTextPositions.get(0).getYDirAdj();
+        GlyphGrid grid = glyphGrid.join();
+        if (glyphSelection == null) {
+            glyphSelection = grid.newSelection();
+        }
+        // Only the cells the rectangle moved across since the last event are re-tested
+        double scale = viewUnitsPerPoint();
+        if (!glyphSelection.update(selectionRect.getX() / scale, selectionRect.getY() / scale,
+                (selectionRect.getX() + selectionRect.getWidth()) / scale,
+                (selectionRect.getY() + selectionRect.getHeight()) / scale))
+            return;
+        int[] glyphs = glyphSelection.getSelectedGlyphs();
+
+        // One rectangle per run of consecutive glyphs on the same line
+        DocumentTextIndex.PageText page = grid.getPage();
+        List<PathElement> elements = new ArrayList<>();
+        for (int i = 0; i < glyphs.length;) {
+            int first = glyphs[i];
+            float left = page.getX(first);
+            float top = page.getY(first);
+            float right = left + page.getWidth(first);
+            float bottom = top + page.getHeight(first);
+            int next = i + 1;
+            while (next < glyphs.length && glyphs[next] == glyphs[next - 1] + 1
+                    && Math.abs(page.getY(glyphs[next]) - top) < page.getHeight(first) / 2) {
+                int glyph = glyphs[next++];
+                left = Math.min(left, page.getX(glyph));
+                right = Math.max(right, page.getX(glyph) + page.getWidth(glyph));
+                top = Math.min(top, page.getY(glyph));
+                bottom = Math.max(bottom, page.getY(glyph) + page.getHeight(glyph));
+            }
+            elements.add(new MoveTo(left * scale, top * scale));
+            elements.add(new LineTo(right * scale, top * scale));
+            elements.add(new LineTo(right * scale, bottom * scale));
+            elements.add(new LineTo(left * scale, bottom * scale));
+            elements.add(new ClosePath());
+            i = next;
+        }
+        selectedGlyphPath.getElements().setAll(elements);
+    }
 
-                for (TextPosition text : pageTextPositions) {
-                    // Add newline if there's significant vertical gap
-                    if (Math.abs(text.getYDirAdj() - lastY) > text.getHeight() * 0.5) {
-                        selectedText.append("\n");
-                        lastY = text.getYDirAdj();
-                    }
-                    // Add space if there's significant horizontal gap
-                    else if (selectedText.length() > 0 && text.getXDirAdj() - lastY > text.getWidth()) {
-                        selectedText.append(" ");
-                    }
-                    selectedText.append(text.getUnicode());
-                }
+    private void copySelectedText() {
+        CompletableFuture<GlyphGrid> grid = requestGlyphGrid();
+        if (grid == null)
+            return;
 
+        // Usually ready long before the release; otherwise the copy waits for the extraction
+        grid.thenAcceptAsync(ready -> {
+            updateSelectedGlyphs();
+            if (glyphSelection == null)
+                return;
+            String selectedText = ready.textOf(glyphSelection.getSelectedGlyphs()).trim();
+            if (!selectedText.isEmpty()) {
                 // Copy to clipboard
                 javafx.scene.input.Clipboard clipboard = javafx.scene.input.Clipboard.getSystemClipboard();
                 javafx.scene.input.ClipboardContent content = new javafx.scene.input.ClipboardContent();
-                content.putString(selectedText.toString().trim());
+                content.putString(selectedText);
                 clipboard.setContent(content);
             }
-
-        } catch (IOException e) {
+        }, Platform::runLater).exceptionally(e -> {
             e.printStackTrace();
-        }
+            return null;
+        });
+    }
+
+    private void sizeOverlay(Pane overlay) {
+        Bounds bounds = pageImageView.getLayoutBounds();
+        overlay.setMinSize(bounds.getWidth(), bounds.getHeight());
+        overlay.setPrefSize(bounds.getWidth(), bounds.getHeight());
+        overlay.setMaxSize(bounds.getWidth(), bounds.getHeight());
+        overlay.setRotate(rotation);
     }
 
-    private boolean isPointInSelection(double x, double y) {
-        return x >= selectionRect.getX() && x <= selectionRect.getX() + selectionRect.getWidth() &&
-                y >= selectionRect.getY() && y <= selectionRect.getY() + selectionRect.getHeight();
+    /**
+     * Renders the tiles of a tiled page off the FX thread through the
+     * scheduler, keeping them in the page image cache under the file's path.
+     */
+    public void setTileSource(String pdfPath, long lastModified, RenderScheduler scheduler,
+            RenderScheduler.Generation generation, PageImageCache cache) {
+        clearTiles();
+        this.tilePdfPath = pdfPath;
+        this.tilePdfLastModified = lastModified;
+        this.tileScheduler = scheduler;
+        this.tileGeneration = generation;
+        this.tileCache = cache;
     }
 
     public void render(PDFRenderer renderer, float zoomLevel, PDDocument doc) throws IOException {
-        this.currentZoom = zoomLevel;
+        if (doc != document) {
+            glyphSelection = null;
+            glyphGrid = null; // Glyph boxes are in points, so they survive zooming but not a new document
+        }
         this.document = doc;
         this.getChildren().removeAll(this.getChildren().filtered(node -> !(node instanceof ImageView)));
-        highlights.clear();
+        clearSelection();
 
         // Calculate DPI based on zoom level (72 DPI is the base PDF unit)
         float dpi = PDF_UNITS_PER_POINT * zoomLevel * 2; // Higher base DPI for better quality
 
-        // Render the page
-        BufferedImage img = renderer.renderImageWithDPI(pageIndex, dpi);
-        Image fxImage = SwingFXUtils.toFXImage(img, null);
+        // Full-resolution size of the rendered page
+        PDPage page = doc.getPage(pageIndex);
+        boolean quarterTurn = page.getRotation() % 180 != 0;
+        double renderedWidth = Math.ceil((quarterTurn ? page.getCropBox().getHeight() : page.getCropBox().getWidth())
+                * dpi / PDF_UNITS_PER_POINT);
+        double renderedHeight = Math.ceil((quarterTurn ? page.getCropBox().getWidth() : page.getCropBox().getHeight())
+                * dpi / PDF_UNITS_PER_POINT);
+
+        // Huge pages get a low-resolution base image; updateTiles() fills in the visible part
+        tiled = TileGrid.needsTiling(renderedWidth, renderedHeight);
+        pixelsPerPoint = dpi / PDF_UNITS_PER_POINT;
+        clearTiles();
+        float baseDpi = tiled ? (float) (dpi * TileGrid.maxUntiledScale(renderedWidth, renderedHeight)) : dpi;
+
+        // Render the page straight into an FX image
+        Image fxImage;
+        synchronized (doc) {
+            fxImage = PdfBoxPageRenderer.renderToImage(renderer, page, pageIndex, baseDpi / PDF_UNITS_PER_POINT, 0,
+                    null);
+        }
 
         // Store original dimensions
-        pageWidth = img.getWidth();
-        pageHeight = img.getHeight();
+        pageWidth = tiled ? renderedWidth : fxImage.getWidth();
+        pageHeight = tiled ? renderedHeight : fxImage.getHeight();
 
         // Create and configure ImageView
         if (pageImageView == null) {
@@ -205,41 +337,142 @@ public class PDFPageView extends StackPane {
 
         // Calculate display scale for coordinate transformations
         displayScale = pageImageView.getFitWidth() / (pageWidth / 2);
+
+        if (tiled) {
+            if (tileLayer == null) {
+                tileLayer = new Pane();
+                tileLayer.setMouseTransparent(true);
+            }
+            tileLayer.setMinSize(pageWidth / 2, pageHeight / 2);
+            tileLayer.setPrefSize(pageWidth / 2, pageHeight / 2);
+            tileLayer.setMaxSize(pageWidth / 2, pageHeight / 2);
+            tileLayer.setRotate(rotation);
+            this.getChildren().add(this.getChildren().indexOf(pageImageView) + 1, tileLayer);
+        }
+
+        // Highlights are kept in points across zoom changes; the overlay is only resized
+        layoutHighlights();
+        this.getChildren().add(highlightOverlay);
     }
 
-    public void addHighlight(float x, float y, float width, float height) {
-        if (pageImageView == null)
+    private void layoutHighlights() {
+        highlightOverlay.setPageSize(pageWidth / pixelsPerPoint, pageHeight / pixelsPerPoint, viewUnitsPerPoint());
+        highlightOverlay.setRotate(rotation);
+    }
+
+    /**
+     * Renders the full-resolution tiles covering the visible part of a tiled
+     * page and drops the rest. The region is in the page image view's coordinates.
+     */
+    public void updateTiles(Rectangle2D visibleRegion) {
+        if (!tiled || tileScheduler == null) {
+            return;
+        }
+
+        // Tiles are cut in rendered pixels, which are displayed at half size
+        Set<PageImageCache.Key> wanted = new HashSet<>();
+        if (visibleRegion != null) {
+            int firstColumn = Math.max(0, TileGrid.columnAt(visibleRegion.getMinX() * 2));
+            int lastColumn = Math.min(TileGrid.columns(pageWidth) - 1, TileGrid.columnAt(visibleRegion.getMaxX() * 2));
+            int firstRow = Math.max(0, TileGrid.rowAt(visibleRegion.getMinY() * 2));
+            int lastRow = Math.min(TileGrid.rows(pageHeight) - 1, TileGrid.rowAt(visibleRegion.getMaxY() * 2));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    // Tiles are rendered unrotated; the tile layer is rotated with the page
+                    PageImageCache.Key tileKey = new PageImageCache.Key(tilePdfPath, tilePdfLastModified,
+                            pageIndex, pixelsPerPoint, 0, column, row);
+                    wanted.add(tileKey);
+                    if (!tileViews.containsKey(tileKey)) {
+                        showTile(tileKey, TileGrid.tileBounds(column, row, pageWidth, pageHeight));
+                    }
+                }
+            }
+        }
+
+        // Tiles that scrolled away are dropped; their images stay in the page cache
+        Iterator<Map.Entry<PageImageCache.Key, ImageView>> iterator = tileViews.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<PageImageCache.Key, ImageView> tile = iterator.next();
+            if (!wanted.contains(tile.getKey())) {
+                CompletableFuture<Image> render = tileRenders.remove(tile.getKey());
+                if (render != null) {
+                    render.cancel(false);
+                }
+                tileLayer.getChildren().remove(tile.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private void showTile(PageImageCache.Key tileKey, Rectangle2D bounds) {
+        ImageView tileView = new ImageView();
+        tileView.setLayoutX(bounds.getMinX() / 2);
+        tileView.setLayoutY(bounds.getMinY() / 2);
+        tileView.setFitWidth(bounds.getWidth() / 2);
+        tileView.setFitHeight(bounds.getHeight() / 2);
+        tileViews.put(tileKey, tileView);
+        tileLayer.getChildren().add(tileView);
+
+        Image cached = tileCache.get(tileKey);
+        if (cached != null) {
+            tileView.setImage(cached);
             return;
+        }
 
-        // Get the current scale of the image view
-        double displayScale = pageImageView.getFitWidth() / pageWidth;
+        CompletableFuture<Image> render = tileScheduler.schedule(tilePdfPath, pageIndex, pixelsPerPoint, 0, bounds,
+                RenderScheduler.Priority.VISIBLE, tileGeneration);
+        tileRenders.put(tileKey, render);
+        render
+                .thenAcceptAsync(image -> {
+                    tileCache.put(tileKey, image);
+                    if (tileViews.get(tileKey) == tileView) {
+                        tileRenders.remove(tileKey);
+                        tileView.setImage(image);
+                    }
+                }, Platform::runLater)
+                .exceptionally(e -> {
+                    if (!RenderScheduler.isCancellation(e)) {
+                        System.err.println("Error rendering tile " + tileKey + ": " + e.getMessage());
+                    }
+                    return null;
+                });
+    }
 
-        // Convert PDF coordinates (72 units per inch) to screen coordinates
-        double scaledX = x * displayScale * 2; // Multiply by 2 to compensate for the DPI scaling
-        double scaledY = y * displayScale * 2;
-        double scaledWidth = width * displayScale * 2;
-        double scaledHeight = height * displayScale * 2;
+    private void clearTiles() {
+        for (CompletableFuture<Image> render : tileRenders.values()) {
+            render.cancel(false);
+        }
+        tileRenders.clear();
+        tileViews.clear();
+        if (tileLayer != null) {
+            tileLayer.getChildren().clear();
+        }
+    }
 
-        Rectangle highlight = new Rectangle(
-                scaledX,
-                scaledY,
-                scaledWidth,
-                scaledHeight);
+    /**
+     * Highlights a box given in points from the top-left corner of the page.
+     * Returns its index for setActiveHighlight().
+     */
+    public int addHighlight(float x, float y, float width, float height) {
+        return highlightOverlay.add(x, y, width, height);
+    }
 
-        highlight.setFill(Color.YELLOW.deriveColor(0, 1.0, 1.0, 0.3));
-        highlight.setStroke(Color.ORANGE);
-        highlight.setStrokeWidth(1.0);
-        highlight.setMouseTransparent(true);
+    /**
+     * Highlights many boxes at once, such as the glyph boxes of search results.
+     */
+    public void addHighlights(float[] boxes) {
+        highlightOverlay.addAll(boxes);
+    }
 
-        highlights.add(highlight);
-        this.getChildren().add(highlight);
+    /**
+     * Marks the highlight of the current search hit, or none with -1.
+     */
+    public void setActiveHighlight(int index) {
+        highlightOverlay.setActive(index);
     }
 
     public void clearHighlights() {
-        for (Rectangle highlight : highlights) {
-            this.getChildren().remove(highlight);
-        }
-        highlights.clear();
+        highlightOverlay.clear();
     }
 
     public int getPageIndex() {
@@ -264,9 +497,12 @@ public class PDFPageView extends StackPane {
             }
         }
 
-        // Update highlight positions
-        for (Rectangle highlight : highlights) {
-            highlight.setRotate(degrees);
+        if (tileLayer != null) {
+            tileLayer.setRotate(degrees);
+        }
+        if (pageImageView != null) {
+            sizeOverlay(selectionLayer);
+            layoutHighlights();
         }
     }
 
@@ -0,0 +1,135 @@
+package com.pdfxplorer.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import javafx.scene.image.Image;
+
+import java.io.File;
+
+/**
+ * What the viewer knows about an opened document version: its info and page
+ * sizes, the thumbnails shown for it and where the reader left it. Opening
+ * the document again restores all of it without parsing or rendering.
+ */
+public class DocumentSession {
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final JsonNode info;
+    private final double[] pageWidths;
+    private final double[] pageHeights;
+    // Guarded by this; dropped under memory pressure and rebuilt from the disk cache
+    private Image[] thumbnails;
+
+    // View state, only touched on the FX thread
+    private int page = 0;
+    private double zoom;
+    private int rotation = 0;
+
+    public DocumentSession(File file, JsonNode info, double zoom) {
+        this.file = file.getAbsoluteFile();
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.info = info;
+        int pageCount = info.get("page_count").asInt();
+        JsonNode pageSizes = info.get("page_sizes");
+        this.pageWidths = new double[pageCount];
+        this.pageHeights = new double[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pageWidths[i] = pageSizes.get(i).get("width").asDouble();
+            pageHeights[i] = pageSizes.get(i).get("height").asDouble();
+        }
+        this.thumbnails = new Image[pageCount];
+        this.zoom = zoom;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getPath() {
+        return file.getPath();
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Whether the file on disk is still the version this session was made from.
+     */
+    public boolean isCurrent() {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    public JsonNode getInfo() {
+        return info;
+    }
+
+    public int getPageCount() {
+        return pageWidths.length;
+    }
+
+    public double[] getPageWidths() {
+        return pageWidths;
+    }
+
+    public double[] getPageHeights() {
+        return pageHeights;
+    }
+
+    public synchronized Image getThumbnail(int pageIndex) {
+        return thumbnails != null ? thumbnails[pageIndex] : null;
+    }
+
+    public synchronized void putThumbnail(int pageIndex, Image image) {
+        if (thumbnails == null) {
+            thumbnails = new Image[pageWidths.length];
+        }
+        thumbnails[pageIndex] = image;
+    }
+
+    /**
+     * Lets go of the thumbnails; the ImageViews still showing them keep theirs.
+     */
+    public synchronized void dropThumbnails() {
+        thumbnails = null;
+    }
+
+    /**
+     * Heap held by the thumbnails, which dwarf the rest of the session.
+     */
+    public synchronized long estimatedBytes() {
+        long bytes = 0;
+        if (thumbnails != null) {
+            for (Image thumbnail : thumbnails) {
+                if (thumbnail != null) {
+                    bytes += (long) thumbnail.getWidth() * (long) thumbnail.getHeight() * 4;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public void saveViewState(int page, double zoom, int rotation) {
+        this.page = page;
+        this.zoom = zoom;
+        this.rotation = rotation;
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + " (" + getPageCount() + " pages)";
+    }
+}
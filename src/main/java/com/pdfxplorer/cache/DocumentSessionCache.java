@@ -0,0 +1,314 @@
+package com.pdfxplorer.cache;
+
+import com.pdfxplorer.pdf.DocumentHandlePool;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * The most recently used documents kept warm, so switching back to one shows
+ * it at once: its session is reused instead of asking the renderer for the
+ * document info again, and the caches holding its pages and text are left
+ * alone until the session goes.
+ *
+ * Under memory pressure, i.e. when the old generation is still above a share
+ * of its maximum after a collection, the documents in the background cool
+ * down first: their thumbnails and page images are dropped, then the least
+ * recently used half of them is evicted. The document on screen is never
+ * touched, and a session pinned by an open tab is never evicted, since the
+ * tab still renders and extracts text through it.
+ *
+ * Memory notifications arrive on a JMX thread and are handed to the
+ * notification executor, so all relief runs on the thread that uses the
+ * cache otherwise.
+ */
+public class DocumentSessionCache implements AutoCloseable {
+    // Documents kept warm, including the one on screen
+    public static final String CAPACITY_PROPERTY = "pdfxplorer.sessions.max";
+    // Share of the old generation still in use after a collection that counts as memory pressure
+    public static final String HEAP_THRESHOLD_PROPERTY = "pdfxplorer.sessions.heapThreshold";
+
+    /**
+     * Told when a session cools down or goes, to drop what other caches hold
+     * for its document. Called on the thread that changed the cache, or the
+     * notification executor under memory pressure, never under the cache's lock.
+     */
+    public interface Listener {
+        // The page images of a background document may go; its session stays
+        void sessionTrimmed(DocumentSession session);
+
+        void sessionEvicted(DocumentSession session);
+    }
+
+    private final int capacity;
+    private final double heapThreshold;
+    private final Listener listener;
+    private final Executor notificationExecutor;
+    // Guarded by this
+    private final Map<String, DocumentSession> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    // Open tabs per session; a pinned session stays until its last tab lets go
+    private final Map<DocumentSession, Integer> pins = new IdentityHashMap<>();
+    private DocumentSession active;
+    private long trims = 0;
+    private long evictions = 0;
+    // Collections that ended above the threshold, as of the last relief
+    private long relievedCollections = 0;
+
+    private final List<MemoryPoolMXBean> watchedPools = new ArrayList<>();
+    private final NotificationListener memoryListener = this::onMemoryNotification;
+
+    public DocumentSessionCache(Listener listener, Executor notificationExecutor) {
+        // As many as the handle pool keeps parsed, so a warm document is never re-parsed
+        this(Integer.getInteger(CAPACITY_PROPERTY, DocumentHandlePool.getDefault().getMaxOpenFiles()),
+                Double.parseDouble(System.getProperty(HEAP_THRESHOLD_PROPERTY, "0.75")), listener,
+                notificationExecutor);
+    }
+
+    public DocumentSessionCache(int capacity, double heapThreshold, Listener listener, Executor notificationExecutor) {
+        this.capacity = Math.max(1, capacity);
+        this.heapThreshold = heapThreshold;
+        this.listener = listener;
+        this.notificationExecutor = notificationExecutor;
+        watchHeap();
+    }
+
+    private void watchHeap() {
+        // Only the old generation supports usage thresholds; what survives there is what matters
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * heapThreshold));
+                watchedPools.add(pool);
+            }
+        }
+        if (!watchedPools.isEmpty()) {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                    .addNotificationListener(memoryListener, null, null);
+        }
+    }
+
+    private void onMemoryNotification(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            System.out.println("Heap above " + Math.round(heapThreshold * 100) + "% after collection, cooling "
+                    + "background documents");
+            notificationExecutor.execute(this::relievePressure);
+        }
+    }
+
+    /**
+     * Whether the old generation was above the threshold after its last collection.
+     */
+    public boolean isUnderPressure() {
+        for (MemoryPoolMXBean pool : watchedPools) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0 && usage.getUsed() > usage.getMax() * heapThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The session of the file, or null when it has none or the file changed
+     * since; a changed file's session is evicted unless a tab still pins it.
+     */
+    public DocumentSession get(File file) {
+        DocumentSession stale;
+        synchronized (this) {
+            DocumentSession session = sessions.get(file.getAbsolutePath());
+            if (session == null || session.isCurrent()) {
+                return session;
+            }
+            if (isPinned(session)) {
+                return null;
+            }
+            stale = sessions.remove(file.getAbsolutePath());
+            if (stale == active) {
+                active = null;
+            }
+            evictions++;
+        }
+        listener.sessionEvicted(stale);
+        return null;
+    }
+
+    /**
+     * Adds a session, evicting the least recently used ones beyond capacity.
+     */
+    public void put(DocumentSession session) {
+        List<DocumentSession> evicted = new ArrayList<>();
+        synchronized (this) {
+            DocumentSession previous = sessions.put(session.getPath(), session);
+            if (previous != null && previous != session && !isPinned(previous)) {
+                evicted.add(previous);
+                evictions++;
+            }
+            evictBeyondCapacity(session, evicted);
+        }
+        for (DocumentSession gone : evicted) {
+            listener.sessionEvicted(gone);
+        }
+    }
+
+    private void evictBeyondCapacity(DocumentSession keep, List<DocumentSession> evicted) {
+        Iterator<DocumentSession> eldest = sessions.values().iterator();
+        while (sessions.size() > capacity && eldest.hasNext()) {
+            DocumentSession candidate = eldest.next();
+            if (candidate != keep && candidate != active && !isPinned(candidate)) {
+                eldest.remove();
+                evicted.add(candidate);
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Keeps the session from being evicted while a tab shows it, in front or
+     * in the background.
+     */
+    public synchronized void pin(DocumentSession session) {
+        pins.merge(session, 1, Integer::sum);
+    }
+
+    /**
+     * Lets go of a pin; the session stays warm but may now be evicted.
+     */
+    public void unpin(DocumentSession session) {
+        List<DocumentSession> evicted = new ArrayList<>();
+        synchronized (this) {
+            pins.computeIfPresent(session, (pinned, count) -> count > 1 ? count - 1 : null);
+            evictBeyondCapacity(null, evicted);
+        }
+        for (DocumentSession gone : evicted) {
+            listener.sessionEvicted(gone);
+        }
+    }
+
+    private boolean isPinned(DocumentSession session) {
+        return pins.containsKey(session);
+    }
+
+    /**
+     * Marks the session on screen, which pressure relief leaves alone.
+     */
+    public void setActive(DocumentSession session) {
+        synchronized (this) {
+            active = session;
+            if (session != null) {
+                // Touch for access order
+                sessions.get(session.getPath());
+            }
+        }
+        // Catches pressure whose notification was missed; each collection is relieved only once
+        if (isUnderPressure() && collectionsAboveThreshold() > relievedCollections()) {
+            relievePressure();
+        }
+    }
+
+    private long collectionsAboveThreshold() {
+        long count = 0;
+        for (MemoryPoolMXBean pool : watchedPools) {
+            count += pool.getCollectionUsageThresholdCount();
+        }
+        return count;
+    }
+
+    private synchronized long relievedCollections() {
+        return relievedCollections;
+    }
+
+    /**
+     * Cools the background documents: thumbnails and page images first, and
+     * the least recently used half of the sessions as well if they had
+     * nothing left to drop.
+     */
+    public void relievePressure() {
+        List<DocumentSession> trimmed = new ArrayList<>();
+        List<DocumentSession> evicted = new ArrayList<>();
+        long collections = collectionsAboveThreshold();
+        synchronized (this) {
+            relievedCollections = collections;
+            List<DocumentSession> background = new ArrayList<>();
+            for (DocumentSession session : sessions.values()) {
+                if (session != active) {
+                    background.add(session);
+                }
+            }
+            long released = 0;
+            for (DocumentSession session : background) {
+                released += session.estimatedBytes();
+                session.dropThumbnails();
+                trimmed.add(session);
+            }
+            if (released == 0) {
+                // Already trimmed by an earlier notification; let the oldest go entirely, unless a tab holds them
+                List<DocumentSession> unpinned = new ArrayList<>();
+                for (DocumentSession session : background) {
+                    if (!isPinned(session)) {
+                        unpinned.add(session);
+                    }
+                }
+                for (int i = 0; i < (unpinned.size() + 1) / 2; i++) {
+                    DocumentSession session = unpinned.get(i);
+                    sessions.remove(session.getPath());
+                    trimmed.remove(session);
+                    evicted.add(session);
+                }
+            }
+            trims += trimmed.size();
+            evictions += evicted.size();
+        }
+        for (DocumentSession session : trimmed) {
+            listener.sessionTrimmed(session);
+        }
+        for (DocumentSession session : evicted) {
+            listener.sessionEvicted(session);
+        }
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() {
+        if (!watchedPools.isEmpty()) {
+            try {
+                ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(memoryListener);
+            } catch (ListenerNotFoundException e) {
+                // Never added
+            }
+        }
+        synchronized (this) {
+            sessions.clear();
+            pins.clear();
+            active = null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long bytes = 0;
+        for (DocumentSession session : sessions.values()) {
+            bytes += session.estimatedBytes();
+        }
+        return String.format("DocumentSessionCache[%d/%d documents, %.1f MB thumbnails, trims=%d, evictions=%d]",
+                sessions.size(), capacity, bytes / 1048576.0, trims, evictions);
+    }
+}
@@ -0,0 +1,176 @@
+package com.pdfxplorer.cache;
+
+import javafx.scene.image.Image;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Rendered page images kept in memory under a byte budget, evicting the
+ * least recently used pages first. Entries are keyed by everything that
+ * changes the pixels, so a zoom or rotation flip back is served instantly.
+ */
+public class PageImageCache {
+    // Memory budget for cached page images in megabytes
+    public static final String CAPACITY_PROPERTY = "pdfxplorer.cache.pageImageMb";
+
+    public static final class Key {
+        private final String documentPath;
+        private final long lastModified;
+        private final int pageIndex;
+        private final long zoomKey;
+        private final int rotation;
+        // Tile coordinates for tiled pages, -1 for a whole page image
+        private final int tileColumn;
+        private final int tileRow;
+
+        public Key(String documentPath, long lastModified, int pageIndex, double zoom, int rotation) {
+            this(documentPath, lastModified, pageIndex, zoom, rotation, -1, -1);
+        }
+
+        public Key(String documentPath, long lastModified, int pageIndex, double zoom, int rotation,
+                int tileColumn, int tileRow) {
+            this.documentPath = documentPath;
+            this.lastModified = lastModified;
+            this.pageIndex = pageIndex;
+            // Fit modes produce arbitrary zooms; a tenth of a percent is indistinguishable
+            this.zoomKey = Math.round(zoom * 1000);
+            this.rotation = rotation;
+            this.tileColumn = tileColumn;
+            this.tileRow = tileRow;
+        }
+
+        public String getDocumentPath() {
+            return documentPath;
+        }
+
+        public int getPageIndex() {
+            return pageIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return lastModified == other.lastModified
+                    && pageIndex == other.pageIndex
+                    && zoomKey == other.zoomKey
+                    && rotation == other.rotation
+                    && tileColumn == other.tileColumn
+                    && tileRow == other.tileRow
+                    && documentPath.equals(other.documentPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(documentPath, lastModified, pageIndex, zoomKey, rotation, tileColumn, tileRow);
+        }
+
+        @Override
+        public String toString() {
+            String page = documentPath + "#" + pageIndex + "@" + zoomKey / 10.0 + "%/" + rotation;
+            return tileColumn < 0 ? page : page + "[" + tileColumn + "," + tileRow + "]";
+        }
+    }
+
+    private final LinkedHashMap<Key, Image> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxBytes;
+    private long currentBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public PageImageCache() {
+        this(Long.getLong(CAPACITY_PROPERTY, 256L) * 1024 * 1024);
+    }
+
+    public PageImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Image get(Key key) {
+        Image image = entries.get(key);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return image;
+    }
+
+    public synchronized void put(Key key, Image image) {
+        long size = sizeOf(image);
+        if (size > maxBytes) {
+            return; // Would evict everything and still not fit
+        }
+
+        Image previous = entries.put(key, image);
+        if (previous != null) {
+            currentBytes -= sizeOf(previous);
+        }
+        currentBytes += size;
+
+        // Evict in access order until we are back under budget
+        Iterator<Map.Entry<Key, Image>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Key, Image> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            currentBytes -= sizeOf(eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(String documentPath) {
+        Iterator<Map.Entry<Key, Image>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Image> entry = iterator.next();
+            if (entry.getKey().documentPath.equals(documentPath)) {
+                currentBytes -= sizeOf(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private static long sizeOf(Image image) {
+        // Decoded images are held as 32-bit pixels
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PageImageCache[%d pages, %.1f/%.1f MB, hits=%d, misses=%d, evictions=%d]",
+                entries.size(), currentBytes / 1048576.0, maxBytes / 1048576.0, hits, misses, evictions);
+    }
+}
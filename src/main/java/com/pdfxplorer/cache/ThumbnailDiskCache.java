@@ -0,0 +1,187 @@
+package com.pdfxplorer.cache;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Page thumbnails persisted across restarts, one directory of PNGs per
+ * document version. A document version is identified by its path, size and
+ * modification time, so an edited file never shows stale thumbnails.
+ * Directories are pruned least recently used first once over the size cap.
+ */
+public class ThumbnailDiskCache {
+    // Disk budget for stored thumbnails in megabytes
+    public static final String CAPACITY_PROPERTY = "pdfxplorer.cache.thumbnailMb";
+
+    private static final String THUMBNAIL_SUFFIX = ".png";
+
+    private final Path cacheDir;
+    private final long maxBytes;
+
+    public ThumbnailDiskCache() {
+        this(Paths.get(System.getProperty("user.home"), ".pdfxplorer", "thumbnails"),
+                Long.getLong(CAPACITY_PROPERTY, 200L) * 1024 * 1024);
+    }
+
+    public ThumbnailDiskCache(Path cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    public String documentKey(File pdfFile) {
+        String identity = pdfFile.getAbsolutePath() + "|" + pdfFile.length() + "|" + pdfFile.lastModified();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(identity.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Pages that already have a stored thumbnail, read with a single directory listing.
+     */
+    public BitSet storedPages(String documentKey) {
+        BitSet pages = new BitSet();
+        Path documentDir = cacheDir.resolve(documentKey);
+        if (!Files.isDirectory(documentDir)) {
+            return pages;
+        }
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(documentDir, "*" + THUMBNAIL_SUFFIX)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                try {
+                    pages.set(Integer.parseInt(name.substring(0, name.length() - THUMBNAIL_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list thumbnail cache: " + e.getMessage());
+        }
+        return pages;
+    }
+
+    /**
+     * Starts loading a stored thumbnail in the background; the image fills in when ready.
+     */
+    public Image load(String documentKey, int pageIndex) {
+        return new Image(thumbnailPath(documentKey, pageIndex).toUri().toString(), true);
+    }
+
+    /**
+     * Writes a thumbnail to disk. Does blocking I/O, so call it off the FX thread.
+     */
+    public void store(String documentKey, int pageIndex, Image thumbnail) {
+        Path target = thumbnailPath(documentKey, pageIndex);
+        try {
+            Files.createDirectories(target.getParent());
+            // Write to a temp file first so a crash never leaves a half-written PNG
+            Path temp = Files.createTempFile(target.getParent(), "thumb", ".tmp");
+            try {
+                ImageIO.write(SwingFXUtils.fromFXImage(thumbnail, null), "png", temp.toFile());
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not store thumbnail for page " + (pageIndex + 1) + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Marks a document as recently used so pruning keeps it.
+     */
+    public void touch(String documentKey) {
+        Path documentDir = cacheDir.resolve(documentKey);
+        try {
+            if (Files.isDirectory(documentDir)) {
+                Files.setLastModifiedTime(documentDir, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not touch thumbnail cache entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes least recently used documents until the cache fits its budget.
+     */
+    public void prune() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+
+        List<Path> documentDirs = new ArrayList<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(cacheDir, Files::isDirectory)) {
+            for (Path entry : entries) {
+                documentDirs.add(entry);
+                totalBytes += sizeOf(entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not scan thumbnail cache: " + e.getMessage());
+            return;
+        }
+
+        documentDirs.sort(Comparator.comparingLong(ThumbnailDiskCache::lastUsed));
+        for (Path documentDir : documentDirs) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            long size = sizeOf(documentDir);
+            deleteRecursively(documentDir);
+            totalBytes -= size;
+            System.out.println("Pruned thumbnail cache entry " + documentDir.getFileName());
+        }
+    }
+
+    private Path thumbnailPath(String documentKey, int pageIndex) {
+        return cacheDir.resolve(documentKey).resolve(pageIndex + THUMBNAIL_SUFFIX);
+    }
+
+    private static long lastUsed(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            System.err.println("Could not delete thumbnail cache entry " + directory + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.pdfxplorer.controller;
+
+import com.pdfxplorer.cache.DocumentSession;
+import com.pdfxplorer.pdf.RenderScheduler;
+import javafx.scene.control.Tab;
+import javafx.scene.control.Tooltip;
+import javafx.scene.image.Image;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An open document in the tab strip. A tab owns nothing but its view state:
+ * the page, zoom and rotation it was left at and the thumbnails it still has
+ * coming. Its document data lives in a DocumentSession, and its pages and
+ * text in the caches every tab shares, so a tab in the background holds no
+ * bitmaps of its own.
+ */
+public final class DocumentTab {
+    private final Tab tab;
+    private final DocumentSession session;
+    // Keeps rendering while the tab is in the background, at the scheduler's background share
+    private final RenderScheduler.Generation thumbnailGeneration;
+    // Thumbnails requested and not rendered yet, so a tab shown again waits on them instead of asking twice;
+    // only touched on the FX thread
+    private final Map<Integer, CompletableFuture<Image>> pendingThumbnails = new HashMap<>();
+
+    private int page;
+    private double zoom;
+    private int rotation;
+
+    public DocumentTab(DocumentSession session, RenderScheduler.Generation thumbnailGeneration) {
+        this.session = session;
+        this.thumbnailGeneration = thumbnailGeneration;
+        this.page = session.getPage();
+        this.zoom = session.getZoom();
+        this.rotation = session.getRotation();
+        this.tab = new Tab(session.getFile().getName());
+        tab.setTooltip(new Tooltip(session.getPath()));
+    }
+
+    public Tab getTab() {
+        return tab;
+    }
+
+    public DocumentSession getSession() {
+        return session;
+    }
+
+    public RenderScheduler.Generation getThumbnailGeneration() {
+        return thumbnailGeneration;
+    }
+
+    public CompletableFuture<Image> getPendingThumbnail(int pageIndex) {
+        return pendingThumbnails.get(pageIndex);
+    }
+
+    public void putPendingThumbnail(int pageIndex, CompletableFuture<Image> thumbnail) {
+        pendingThumbnails.put(pageIndex, thumbnail);
+    }
+
+    public void removePendingThumbnail(int pageIndex) {
+        pendingThumbnails.remove(pageIndex);
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public void saveViewState(int page, double zoom, int rotation) {
+        this.page = page;
+        this.zoom = zoom;
+        this.rotation = rotation;
+        // Reopening the document after the tab is closed starts here too
+        session.saveViewState(page, zoom, rotation);
+    }
+}
@@ -1,15 +1,27 @@
 package com.pdfxplorer.controller;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.pdfxplorer.pdf.PythonPdfRenderer;
+import com.pdfxplorer.cache.DocumentSession;
+import com.pdfxplorer.cache.DocumentSessionCache;
+import com.pdfxplorer.cache.PageImageCache;
+import com.pdfxplorer.cache.ThumbnailDiskCache;
+import com.pdfxplorer.pdf.DocumentHandlePool;
+import com.pdfxplorer.pdf.RenderScheduler;
+import com.pdfxplorer.pdf.RoutingPageRenderer;
+import com.pdfxplorer.search.LibraryIndex;
+import com.pdfxplorer.text.TextLayerService;
+import com.pdfxplorer.view.TileGrid;
+import com.pdfxplorer.view.VirtualPageList;
+import com.pdfxplorer.view.VirtualThumbnailList;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
 import java.io.File;
 import java.io.IOException;
@@ -18,6 +30,7 @@ import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import javafx.collections.FXCollections;
@@ -61,6 +74,8 @@ public class MainController {
     @FXML
     private TabPane sidebarTabPane;
     @FXML
+    private ScrollPane thumbnailScrollPane;
+    @FXML
     private VBox thumbnailContainer;
     @FXML
     private Label fileNameLabel;
@@ -74,42 +89,151 @@ public class MainController {
     private Label modifiedDateLabel;
     @FXML
     private ListView<String> recentFilesListView;
-
-    private PythonPdfRenderer pdfRenderer;
+    @FXML
+    private TabPane documentTabPane;
+    @FXML
+    private Button libraryFolderButton;
+    @FXML
+    private TextField libraryQueryField;
+    @FXML
+    private Label libraryStatusLabel;
+    @FXML
+    private ListView<LibraryIndex.PageHit> libraryResultsListView;
+
+    private RoutingPageRenderer pdfRenderer;
+    private RenderScheduler renderScheduler;
+    // Cancelled when the document, zoom or rotation changes so stale renders never start
+    private RenderScheduler.Generation pageGeneration;
+    private final PageImageCache pageCache = new PageImageCache();
+    private final ThumbnailDiskCache thumbnailCache = new ThumbnailDiskCache();
+    // Page text for search, selection and highlighting, extracted in the background
+    private final TextLayerService textLayers = TextLayerService.getDefault();
+    // Recently used documents kept warm for switching back to them
+    private DocumentSessionCache sessions;
+    // The tab on screen; the others hold only their view state
+    private DocumentTab activeTab;
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    // The folder searched from the library tab, indexed on the executor
+    private LibraryIndex libraryIndex;
+    private static final int MAX_LIBRARY_HITS = 200;
     private static final double[] ZOOM_LEVELS = { 0.25, 0.5, 0.75, 1.0, 1.25, 1.5, 2.0, 3.0, 4.0 };
     private List<String> recentFiles = new ArrayList<>();
     private static final int MAX_RECENT_FILES = 5;
+    private static final double THUMBNAIL_ZOOM = 0.2;
+    // Visible pages first get a quick pass at this fraction of the target zoom
+    private static final double PREVIEW_ZOOM_FACTOR = 0.25;
+    // Marks a page view that already shows its full-resolution image
+    private static final String FULL_RESOLUTION_KEY = "pdfxplorer.fullResolution";
+    // The outstanding renders for a page view, cancelled when the view is recycled
+    private static final String RENDER_TASK_KEY = "pdfxplorer.renderTask";
+    private static final String PREVIEW_TASK_KEY = "pdfxplorer.previewTask";
+    // Marks a page view shown as a base image with tiles on top
+    private static final String TILED_KEY = "pdfxplorer.tiled";
+    // The tile views currently on a tile layer, by cache key
+    private static final String TILES_KEY = "pdfxplorer.tiles";
 
     private String currentPdfPath;
+    private long currentPdfLastModified;
     private int currentPage = 0;
     private int totalPages = 0;
     private double currentZoom = 1.0;
+    private int currentRotation = 0;
 
     private ObservableList<String> recentFilesList = FXCollections.observableArrayList();
 
-    private Map<Integer, VBox> pageContainers = new HashMap<>();
-    private Map<Integer, ImageView> thumbnailViews = new HashMap<>();
-    private VBox currentSelectedThumbnail = null;
+    private VirtualPageList pageList;
+    private int pendingRenders = 0;
+    private VirtualThumbnailList thumbnailList;
+    // The tab whose thumbnails the strip shows
+    private DocumentTab thumbnailTab;
+    // Thumbnails of the tab stored by an earlier run, read from disk instead of rendered
+    private String thumbnailKey;
+    private BitSet storedThumbnails = new BitSet();
     private double lastScrollPosition = 0;
     private boolean isScrolling = false;
 
     @FXML
     public void initialize() {
         // Initialize PDF renderer
-        pdfRenderer = new PythonPdfRenderer();
+        pdfRenderer = new RoutingPageRenderer();
+        renderScheduler = new RenderScheduler(pdfRenderer);
+        pageGeneration = renderScheduler.newGeneration();
+        sessions = new DocumentSessionCache(new DocumentSessionCache.Listener() {
+            @Override
+            public void sessionTrimmed(DocumentSession session) {
+                pageCache.invalidate(session.getPath());
+            }
+
+            @Override
+            public void sessionEvicted(DocumentSession session) {
+                // Sessions of open tabs are pinned, so nothing renders or extracts from this one any more
+                pageCache.invalidate(session.getPath());
+                textLayers.invalidate(session.getFile());
+                DocumentHandlePool.getDefault().release(session.getFile());
+            }
+        }, Platform::runLater);
+
+        // Keep the thumbnail store within its disk budget
+        executorService.submit(thumbnailCache::prune);
 
         // Configure scroll pane
         scrollPane.setFitToWidth(false);
         scrollPane.setHbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
         scrollPane.setVbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
 
+        // Only pages near the viewport get a node and a render
+        pageList = new VirtualPageList(scrollPane, pdfContainer, new VirtualPageList.PageBinder() {
+            @Override
+            public void bindPage(int pageIndex, ImageView pageView) {
+                renderPage(pageIndex, pageView);
+                // Pages on screen get their text before the rest of the document
+                textLayers.prefetchPage(new File(currentPdfPath), pageIndex, TextLayerService.Priority.VISIBLE);
+            }
+
+            @Override
+            public void unbindPage(int pageIndex, ImageView pageView) {
+                // Pages scrolled out of range are not worth finishing
+                cancelRender(pageView, RENDER_TASK_KEY);
+                cancelRender(pageView, PREVIEW_TASK_KEY);
+                clearTiles(pageList.getTileLayer(pageIndex));
+            }
+        });
+
+        // Likewise only thumbnails near the sidebar's viewport
+        thumbnailList = new VirtualThumbnailList(thumbnailScrollPane, thumbnailContainer,
+                new VirtualThumbnailList.ThumbnailBinder() {
+                    @Override
+                    public void bindThumbnail(int pageIndex, ImageView thumbnailView) {
+                        showThumbnail(thumbnailTab, pageIndex, thumbnailView);
+                    }
+
+                    @Override
+                    public void unbindThumbnail(int pageIndex, ImageView thumbnailView) {
+                        // Thumbnails scrolled past are not worth rendering; a tab going to the background
+                        // keeps its renders at the background share
+                        if (thumbnailTab != null && thumbnailTab == activeTab) {
+                            CompletableFuture<Image> pending = thumbnailTab.getPendingThumbnail(pageIndex);
+                            if (pending != null) {
+                                pending.cancel(false);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void thumbnailClicked(int pageIndex) {
+                        scrollToPage(pageIndex);
+                    }
+                });
+
         // Add scroll listener for page detection
         scrollPane.vvalueProperty().addListener((obs, oldVal, newVal) -> {
             if (!isScrolling) {
                 detectVisiblePage();
             }
+            updateVisibleTiles();
         });
+        scrollPane.hvalueProperty().addListener((obs, oldVal, newVal) -> updateVisibleTiles());
+        scrollPane.viewportBoundsProperty().addListener((obs, oldVal, newVal) -> updateVisibleTiles());
 
         // Setup keyboard shortcuts
         setupKeyboardShortcuts();
@@ -156,6 +280,31 @@ public class MainController {
         // Initialize sidebar
         initializeSidebar();
 
+        // One tab per open document, all drawing on the one page view
+        documentTabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.ALL_TABS);
+        documentTabPane.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> {
+            if (oldTab != null) {
+                deactivateTab((DocumentTab) oldTab.getUserData());
+            }
+            if (newTab != null) {
+                activateTab((DocumentTab) newTab.getUserData());
+            } else {
+                clearDocument();
+            }
+        });
+
+        // Search across every PDF of a folder
+        libraryFolderButton.setOnAction(event -> handleChooseLibrary());
+        libraryQueryField.setOnAction(event -> searchLibrary());
+        libraryResultsListView.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2) {
+                LibraryIndex.PageHit hit = libraryResultsListView.getSelectionModel().getSelectedItem();
+                if (hit != null) {
+                    openPdf(hit.getDocument().toFile(), hit.getPageIndex());
+                }
+            }
+        });
+
         // Initialize recent files list
         recentFilesListView.setItems(recentFilesList);
         recentFilesListView.setOnMouseClicked(event -> {
@@ -176,7 +325,6 @@ public class MainController {
 
     private void initializeSidebar() {
         sidebarTabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
-        thumbnailContainer.setSpacing(10);
     }
 
     private void setupKeyboardShortcuts() {
@@ -213,6 +361,12 @@ public class MainController {
                                 resetZoom();
                                 event.consume();
                                 break;
+                            case D:
+                                if (event.isShiftDown()) {
+                                    printCacheStatistics();
+                                    event.consume();
+                                }
+                                break;
                         }
                     } else {
                         switch (event.getCode()) {
@@ -284,6 +438,17 @@ public class MainController {
         contentContainer.setFocusTraversable(true);
     }
 
+    /**
+     * Prints the hit rates and sizes of the caches, on demand rather than
+     * on every re-render.
+     */
+    private void printCacheStatistics() {
+        System.out.println(pageCache);
+        System.out.println(sessions);
+        System.out.println(textLayers);
+        System.out.println(DocumentHandlePool.getDefault());
+    }
+
     private void zoomIn() {
         System.out.println("zoomIn() called - Current zoom: " + currentZoom);
 
@@ -360,42 +525,53 @@ public class MainController {
     }
 
     public void openPdf(File file) {
+        openPdf(file, -1);
+    }
+
+    /**
+     * Opens the document at the given page, or where the reader left it when
+     * the page is negative.
+     */
+    private void openPdf(File file, int page) {
         System.out.println("Opening PDF: " + file.getAbsolutePath());
-        loadingIndicator.setVisible(true);
-        currentPdfPath = file.getAbsolutePath();
-        currentPage = 0;
+        // A document open in a tab already is just brought to the front
+        DocumentTab existing = findTab(file);
+        if (existing != null) {
+            if (existing.getSession().isCurrent()) {
+                if (page >= 0 && existing == activeTab) {
+                    navigateToPage(page);
+                } else if (page >= 0) {
+                    existing.saveViewState(page, existing.getZoom(), existing.getRotation());
+                }
+                documentTabPane.getSelectionModel().select(existing.getTab());
+                return;
+            }
+            // Changed on disk since; it is opened afresh below
+            closeTab(existing);
+        }
 
-        // Reset containers
-        pdfContainer.getChildren().clear();
-        pageContainers.clear();
-        thumbnailContainer.getChildren().clear();
-        thumbnailViews.clear();
+        // A document opened recently is shown straight from its session
+        DocumentSession session = sessions.get(file);
+        if (session != null) {
+            if (page >= 0) {
+                session.saveViewState(page, session.getZoom(), session.getRotation());
+            }
+            addTab(session);
+            return;
+        }
 
-        pdfRenderer.getDocumentInfo(currentPdfPath)
+        loadingIndicator.setVisible(true);
+        pdfRenderer.getDocumentInfo(file.getAbsolutePath())
                 .thenAcceptAsync(info -> {
                     System.out.println("Got document info: " + info.toString());
-                    totalPages = info.get("page_count").asInt();
-                    System.out.println("Total pages: " + totalPages);
-
-                    Platform.runLater(() -> {
-                        updateStatusBar();
-                        updateNavigationButtons();
-                        renderAllPages();
-                        updateThumbnails();
-                        updateFileInfo(file);
-                        updateRecentFiles(file);
-
-                        // Ensure first page is visible
-                        scrollToPage(0);
-                        highlightThumbnail(0);
-
-                        // Update UI controls
-                        prevPageButton.setDisable(true);
-                        nextPageButton.setDisable(totalPages <= 1);
-
-                        // Request focus for keyboard shortcuts
-                        contentContainer.requestFocus();
-                    });
+                    // Page sizes give every page its placeholder size before it is rendered
+                    DocumentSession opened = new DocumentSession(file, info, currentZoom);
+                    System.out.println("Total pages: " + opened.getPageCount());
+                    if (page >= 0) {
+                        opened.saveViewState(page, currentZoom, 0);
+                    }
+                    sessions.put(opened);
+                    addTab(opened);
                 }, Platform::runLater)
                 .exceptionally(e -> {
                     Platform.runLater(() -> {
@@ -410,38 +586,199 @@ public class MainController {
                 });
     }
 
+    private DocumentTab findTab(File file) {
+        String path = file.getAbsolutePath();
+        for (Tab tab : documentTabPane.getTabs()) {
+            DocumentTab documentTab = (DocumentTab) tab.getUserData();
+            if (documentTab.getSession().getPath().equals(path)) {
+                return documentTab;
+            }
+        }
+        return null;
+    }
+
+    private void handleChooseLibrary() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Choose a Folder of PDFs");
+        File folder = directoryChooser.showDialog(contentContainer.getScene().getWindow());
+        if (folder == null) {
+            return;
+        }
+
+        LibraryIndex index = new LibraryIndex(folder.toPath());
+        libraryIndex = index;
+        libraryResultsListView.getItems().clear();
+        libraryStatusLabel.setText("Indexing " + folder.getName() + "...");
+        // Unchanged documents come from the stored index; only new and changed ones are extracted
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                index.load();
+                return index.update();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, executorService).whenCompleteAsync((indexed, e) -> {
+            if (index != libraryIndex) {
+                return; // Another folder was chosen meanwhile
+            }
+            if (e != null) {
+                System.err.println("Error indexing library: " + e.getMessage());
+                libraryStatusLabel.setText("Could not index " + folder.getName() + ": " + e.getMessage());
+                return;
+            }
+            libraryStatusLabel.setText(index.getDocumentCount() + " documents in " + folder.getName());
+            if (!libraryQueryField.getText().isBlank()) {
+                searchLibrary();
+            }
+        }, Platform::runLater);
+    }
+
+    private void searchLibrary() {
+        LibraryIndex index = libraryIndex;
+        String query = libraryQueryField.getText();
+        if (index == null || query.isBlank()) {
+            return;
+        }
+        // Documents indexed so far are searchable while the rest of the folder is still indexing
+        CompletableFuture.supplyAsync(() -> index.search(query, MAX_LIBRARY_HITS))
+                .thenAcceptAsync(hits -> {
+                    if (index != libraryIndex || !query.equals(libraryQueryField.getText())) {
+                        return;
+                    }
+                    libraryResultsListView.getItems().setAll(hits);
+                    libraryStatusLabel.setText(hits.size() + (hits.size() == MAX_LIBRARY_HITS ? "+" : "")
+                            + " pages in " + index.getDocumentCount() + " documents");
+                }, Platform::runLater);
+    }
+
+    private void addTab(DocumentSession session) {
+        // Pinned for as long as the tab is open, in front or in the background
+        sessions.pin(session);
+        DocumentHandlePool.getDefault().pin(session.getFile());
+        DocumentTab documentTab = new DocumentTab(session, renderScheduler.newGeneration());
+        // The selection listener finds the tab's state through its user data
+        documentTab.getTab().setUserData(documentTab);
+        documentTab.getTab().setOnClosed(event -> forgetTab(documentTab));
+        documentTabPane.getTabs().add(documentTab.getTab());
+        // Selecting it shows it through the selection listener
+        documentTabPane.getSelectionModel().select(documentTab.getTab());
+    }
+
+    private void closeTab(DocumentTab documentTab) {
+        documentTabPane.getTabs().remove(documentTab.getTab());
+        forgetTab(documentTab);
+    }
+
+    private void forgetTab(DocumentTab documentTab) {
+        // Its thumbnails are not needed any more; the caches keep what was rendered
+        documentTab.getThumbnailGeneration().cancel();
+        sessions.unpin(documentTab.getSession());
+        DocumentHandlePool.getDefault().unpin(documentTab.getSession().getFile());
+    }
+
+    /**
+     * Puts the tab being left in the background: its view state is saved,
+     * its page views are recycled and its remaining thumbnails render at the
+     * background share only.
+     */
+    private void deactivateTab(DocumentTab documentTab) {
+        if (documentTab != activeTab) {
+            return;
+        }
+        documentTab.saveViewState(currentPage, currentZoom, currentRotation);
+        renderScheduler.setBackground(documentTab.getThumbnailGeneration(), true);
+        activeTab = null;
+    }
+
+    private void activateTab(DocumentTab documentTab) {
+        activeTab = documentTab;
+        DocumentSession session = documentTab.getSession();
+        File file = session.getFile();
+        currentPdfPath = session.getPath();
+        currentPdfLastModified = session.getLastModified();
+
+        // Nothing queued for the previous view is needed any more
+        pageGeneration.cancel();
+        pageGeneration = renderScheduler.newGeneration();
+        renderScheduler.setBackground(documentTab.getThumbnailGeneration(), false);
+
+        // Bitmaps shown for the previous tab go back to the caches
+        pageList.clear();
+        thumbnailList.clear();
+
+        textLayers.prefetchDocument(file, session.getPageCount());
+        showDocument(file, documentTab);
+    }
+
+    private void clearDocument() {
+        // The last tab was closed
+        activeTab = null;
+        currentPdfPath = null;
+        currentPage = 0;
+        totalPages = 0;
+        pageGeneration.cancel();
+        pageGeneration = renderScheduler.newGeneration();
+        pageList.clear();
+        thumbnailList.clear();
+        sessions.setActive(null);
+        loadingIndicator.setVisible(false);
+        updateStatusBar();
+        updateNavigationButtons();
+    }
+
+    private void showDocument(File file, DocumentTab documentTab) {
+        DocumentSession session = documentTab.getSession();
+        sessions.setActive(session);
+        totalPages = session.getPageCount();
+        currentPage = Math.min(documentTab.getPage(), totalPages - 1);
+        currentZoom = documentTab.getZoom();
+        currentRotation = documentTab.getRotation();
+
+        updateZoomComboBox();
+        updateStatusBar();
+        updateNavigationButtons();
+        pageList.setZoom(currentZoom);
+        pageList.setRotation(currentRotation);
+        pageList.setDocument(session.getPageWidths(), session.getPageHeights());
+        updateThumbnails();
+        updateFileInfo(file);
+        updateRecentFiles(file);
+
+        // Back where the reader left it, the first page for a new document
+        scrollToPage(currentPage);
+        highlightThumbnail(currentPage);
+
+        // Update UI controls
+        prevPageButton.setDisable(currentPage == 0);
+        nextPageButton.setDisable(currentPage >= totalPages - 1);
+
+        // Pages still in the page cache needed no render at all
+        if (pendingRenders == 0) {
+            loadingIndicator.setVisible(false);
+        }
+
+        // Request focus for keyboard shortcuts
+        contentContainer.requestFocus();
+    }
+
     private void renderAllPages() {
         System.out.println("renderAllPages() called - Current zoom: " + currentZoom);
-        loadingIndicator.setVisible(true);
 
         // Store current scroll position and page
         double scrollPosition = scrollPane.getVvalue();
         int currentVisiblePage = currentPage;
 
-        // Clear and re-render
-        pdfContainer.getChildren().clear();
-        pageContainers.clear();
-
-        for (int i = 0; i < totalPages; i++) {
-            final int pageNum = i;
-            VBox pageBox = new VBox();
-            pageBox.setUserData(pageNum);
-            pageBox.setAlignment(javafx.geometry.Pos.CENTER);
-            pageBox.setPadding(new Insets(20)); // Add padding around pages
-            pageBox.getStyleClass().add("pdf-page");
-
-            ImageView pageView = new ImageView();
-            pageView.setPreserveRatio(true);
-            pageView.setSmooth(true);
-            pageBox.getChildren().add(pageView);
-
-            pdfContainer.getChildren().add(pageBox);
-            pageContainers.put(pageNum, pageBox);
-
-            System.out.println("Requesting render for page " + (pageNum + 1) + " at zoom " + currentZoom);
-            renderPage(pageNum, pageView);
+        // Renders queued for the old zoom or rotation are superseded
+        if (currentZoom != pageList.getZoom() || currentRotation != pageList.getRotation()) {
+            pageGeneration.cancel();
+            pageGeneration = renderScheduler.newGeneration();
         }
 
+        // Re-layout at the new zoom and re-render only the pages in range
+        pageList.setZoom(currentZoom);
+        pageList.setRotation(currentRotation);
+        pageList.refresh();
+
         // Restore scroll position after rendering
         Platform.runLater(() -> {
             scrollPane.setVvalue(scrollPosition);
@@ -452,106 +789,331 @@ public class MainController {
 
     private void renderPage(int pageNum, ImageView targetView) {
         System.out.println("renderPage() called for page " + (pageNum + 1) + " with zoom " + currentZoom);
-        pdfRenderer.renderPage(currentPdfPath, pageNum, currentZoom)
+        String pdfPath = currentPdfPath;
+        double zoom = currentZoom;
+        int rotation = currentRotation;
+
+        // Tiles belong to one zoom and rotation; the new ones are requested below
+        clearTiles(pageList.getTileLayer(pageNum));
+        targetView.getProperties().remove(TILED_KEY);
+        if (TileGrid.needsTiling(pageList.getDisplayWidth(pageNum), pageList.getDisplayHeight(pageNum))) {
+            renderTiledPage(pageNum, targetView, pdfPath, zoom, rotation);
+            return;
+        }
+
+        // Pages seen before at this zoom and rotation need no render at all
+        PageImageCache.Key cacheKey = new PageImageCache.Key(
+                pdfPath, currentPdfLastModified, pageNum, zoom, rotation);
+        Image cached = pageCache.get(cacheKey);
+        if (cached != null) {
+            targetView.setImage(cached);
+            targetView.getProperties().put(FULL_RESOLUTION_KEY, cacheKey);
+            return;
+        }
+
+        // Progressive rendering: keep the old image scaled (or the thumbnail),
+        // then a fast low-resolution pass, then the full render in place
+        targetView.getProperties().remove(FULL_RESOLUTION_KEY);
+        showPlaceholder(pageNum, targetView);
+        if (pageList.isInViewport(pageNum) && zoom * PREVIEW_ZOOM_FACTOR > THUMBNAIL_ZOOM) {
+            renderPreview(pageNum, targetView, pdfPath, zoom, rotation);
+        }
+
+        pendingRenders++;
+        loadingIndicator.setVisible(true);
+
+        CompletableFuture<Image> render = renderScheduler.schedule(
+                pdfPath, pageNum, zoom, rotation, renderPriority(pageNum), pageGeneration);
+        targetView.getProperties().put(RENDER_TASK_KEY, render);
+        render
                 .thenAcceptAsync(image -> {
-                    System.out.println("Page " + (pageNum + 1) + " rendered successfully at zoom " + currentZoom);
-                    Platform.runLater(() -> {
+                    pageCache.put(cacheKey, image);
+                    // The view may have been recycled for another page in the meantime
+                    if (isCurrentRender(pageNum, targetView, pdfPath, zoom, rotation)) {
+                        System.out.println("Page " + (pageNum + 1) + " rendered successfully at zoom " + zoom);
                         targetView.setImage(image);
-                        if (pageNum == totalPages - 1) {
-                            loadingIndicator.setVisible(false);
-                            System.out.println("All pages rendered at zoom " + currentZoom);
-                        }
-                    });
+                        targetView.getProperties().put(FULL_RESOLUTION_KEY, cacheKey);
+                    }
+                    finishRender();
                 }, Platform::runLater)
                 .exceptionally(e -> {
                     Platform.runLater(() -> {
+                        finishRender();
+                        if (RenderScheduler.isCancellation(e)) {
+                            return;
+                        }
                         System.err.println("Error rendering page " + (pageNum + 1) + ": " + e.getMessage());
-                        if (pageNum == totalPages - 1) {
-                            loadingIndicator.setVisible(false);
+                        if (isCurrentRender(pageNum, targetView, pdfPath, zoom, rotation)) {
+                            showError("Error Rendering Page",
+                                    "Could not render page " + (pageNum + 1),
+                                    e.getMessage());
                         }
-                        showError("Error Rendering Page",
-                                "Could not render page " + (pageNum + 1),
-                                e.getMessage());
                     });
                     return null;
                 });
     }
 
-    private void updateThumbnails() {
-        thumbnailContainer.getChildren().clear();
-        thumbnailViews.clear();
+    private void showPlaceholder(int pageNum, ImageView targetView) {
+        if (targetView.getImage() != null) {
+            return; // The previous zoom's image is already scaled to the new page size
+        }
+        Image thumbnail = activeTab != null ? activeTab.getSession().getThumbnail(pageNum) : null;
+        if (thumbnail != null) {
+            targetView.setImage(thumbnail);
+        }
+    }
 
-        for (int i = 0; i < totalPages; i++) {
-            final int pageNum = i;
-            VBox thumbnailBox = new VBox(5);
-            thumbnailBox.getStyleClass().add("thumbnail");
-            thumbnailBox.setMaxWidth(150);
+    private void renderPreview(int pageNum, ImageView targetView, String pdfPath, double zoom, int rotation) {
+        // Even the preview of a huge page must stay below the tiling threshold
+        double previewZoom = zoom * Math.min(PREVIEW_ZOOM_FACTOR, TileGrid.maxUntiledScale(
+                pageList.getDisplayWidth(pageNum), pageList.getDisplayHeight(pageNum)));
+        PageImageCache.Key previewKey = new PageImageCache.Key(
+                pdfPath, currentPdfLastModified, pageNum, previewZoom, rotation);
+        Image cachedPreview = pageCache.get(previewKey);
+        if (cachedPreview != null) {
+            targetView.setImage(cachedPreview);
+            return;
+        }
 
-            ImageView thumbnail = new ImageView();
-            thumbnail.setFitWidth(150);
-            thumbnail.setPreserveRatio(true);
-            thumbnail.setSmooth(true);
+        CompletableFuture<Image> preview = renderScheduler.schedule(
+                pdfPath, pageNum, previewZoom, rotation, RenderScheduler.Priority.VISIBLE, pageGeneration);
+        targetView.getProperties().put(PREVIEW_TASK_KEY, preview);
+        preview
+                .thenAcceptAsync(image -> {
+                    pageCache.put(previewKey, image);
+                    // Never replace the full-resolution image if it won the race
+                    if (isCurrentRender(pageNum, targetView, pdfPath, zoom, rotation)
+                            && !targetView.getProperties().containsKey(FULL_RESOLUTION_KEY)) {
+                        targetView.setImage(image);
+                    }
+                }, Platform::runLater)
+                .exceptionally(e -> {
+                    // The full render reports errors; a failed preview just leaves the placeholder
+                    if (!RenderScheduler.isCancellation(e)) {
+                        System.err.println("Preview of page " + (pageNum + 1) + " failed: " + e.getMessage());
+                    }
+                    return null;
+                });
+    }
 
-            Label pageLabel = new Label("Page " + (pageNum + 1));
-            pageLabel.getStyleClass().add("thumbnail-label");
+    private void renderTiledPage(int pageNum, ImageView targetView, String pdfPath, double zoom, int rotation) {
+        // Too big for one image: a low-resolution base covers the page and
+        // full-resolution tiles are rendered for the visible region only
+        targetView.getProperties().remove(FULL_RESOLUTION_KEY);
+        targetView.getProperties().put(TILED_KEY, Boolean.TRUE);
+        showPlaceholder(pageNum, targetView);
+        renderPreview(pageNum, targetView, pdfPath, zoom, rotation);
 
-            thumbnailBox.getChildren().addAll(thumbnail, pageLabel);
-            thumbnailViews.put(pageNum, thumbnail);
+        // Wait for layout so the visible region is known
+        Platform.runLater(() -> updateTiles(pageNum));
+    }
 
-            // Add click handler
-            thumbnailBox.setOnMouseClicked(e -> {
-                scrollToPage(pageNum);
-            });
+    private void updateVisibleTiles() {
+        for (int i = pageList.getFirstBoundPage(); i <= pageList.getLastBoundPage(); i++) {
+            updateTiles(i);
+        }
+    }
 
-            thumbnailContainer.getChildren().add(thumbnailBox);
+    private void updateTiles(int pageNum) {
+        ImageView pageView = pageList.getPageView(pageNum);
+        Pane tileLayer = pageList.getTileLayer(pageNum);
+        if (pageView == null || !pageView.getProperties().containsKey(TILED_KEY)) {
+            return;
+        }
+
+        double width = pageList.getDisplayWidth(pageNum);
+        double height = pageList.getDisplayHeight(pageNum);
+        Map<PageImageCache.Key, ImageView> tiles = tilesOf(tileLayer);
+        Set<PageImageCache.Key> wanted = new HashSet<>();
+
+        Rectangle2D visible = pageList.getVisibleRegion(pageNum);
+        if (visible != null) {
+            // One tile of margin so panning mostly reveals tiles that are already there
+            int firstColumn = Math.max(0, TileGrid.columnAt(visible.getMinX()) - 1);
+            int lastColumn = Math.min(TileGrid.columns(width) - 1, TileGrid.columnAt(visible.getMaxX()) + 1);
+            int firstRow = Math.max(0, TileGrid.rowAt(visible.getMinY()) - 1);
+            int lastRow = Math.min(TileGrid.rows(height) - 1, TileGrid.rowAt(visible.getMaxY()) + 1);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    PageImageCache.Key tileKey = new PageImageCache.Key(currentPdfPath, currentPdfLastModified,
+                            pageNum, currentZoom, currentRotation, column, row);
+                    wanted.add(tileKey);
+                    if (!tiles.containsKey(tileKey)) {
+                        Rectangle2D bounds = TileGrid.tileBounds(column, row, width, height);
+                        showTile(pageNum, tileLayer, tileKey, bounds, bounds.intersects(visible)
+                                ? RenderScheduler.Priority.VISIBLE
+                                : RenderScheduler.Priority.ADJACENT);
+                    }
+                }
+            }
+        }
 
-            // Render thumbnail
-            pdfRenderer.renderPage(currentPdfPath, pageNum, 0.2)
-                    .thenAcceptAsync(image -> {
-                        thumbnail.setImage(image);
-                    }, Platform::runLater);
+        // Tiles that scrolled away are dropped; their images stay in the page cache
+        Iterator<Map.Entry<PageImageCache.Key, ImageView>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<PageImageCache.Key, ImageView> tile = iterator.next();
+            if (!wanted.contains(tile.getKey())) {
+                cancelRender(tile.getValue(), RENDER_TASK_KEY);
+                tileLayer.getChildren().remove(tile.getValue());
+                iterator.remove();
+            }
         }
     }
 
-    private void detectVisiblePage() {
-        if (pdfContainer.getChildren().isEmpty())
+    private void showTile(int pageNum, Pane tileLayer, PageImageCache.Key tileKey, Rectangle2D bounds,
+            RenderScheduler.Priority priority) {
+        ImageView tileView = new ImageView();
+        tileView.setLayoutX(bounds.getMinX());
+        tileView.setLayoutY(bounds.getMinY());
+        tileView.setFitWidth(bounds.getWidth());
+        tileView.setFitHeight(bounds.getHeight());
+        Map<PageImageCache.Key, ImageView> tiles = tilesOf(tileLayer);
+        tiles.put(tileKey, tileView);
+        tileLayer.getChildren().add(tileView);
+
+        Image cached = pageCache.get(tileKey);
+        if (cached != null) {
+            tileView.setImage(cached);
+            return;
+        }
+
+        pendingRenders++;
+        loadingIndicator.setVisible(true);
+
+        CompletableFuture<Image> render = renderScheduler.schedule(currentPdfPath, pageNum, currentZoom,
+                currentRotation, bounds, priority, pageGeneration);
+        tileView.getProperties().put(RENDER_TASK_KEY, render);
+        render
+                .thenAcceptAsync(image -> {
+                    pageCache.put(tileKey, image);
+                    if (tiles.get(tileKey) == tileView) {
+                        tileView.setImage(image);
+                    }
+                    finishRender();
+                }, Platform::runLater)
+                .exceptionally(e -> {
+                    Platform.runLater(() -> {
+                        finishRender();
+                        if (!RenderScheduler.isCancellation(e)) {
+                            System.err.println("Error rendering tile " + tileKey + ": " + e.getMessage());
+                        }
+                    });
+                    return null;
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<PageImageCache.Key, ImageView> tilesOf(Pane tileLayer) {
+        return (Map<PageImageCache.Key, ImageView>) tileLayer.getProperties()
+                .computeIfAbsent(TILES_KEY, key -> new HashMap<PageImageCache.Key, ImageView>());
+    }
+
+    private static void clearTiles(Pane tileLayer) {
+        if (tileLayer == null) {
             return;
+        }
+        for (ImageView tileView : tilesOf(tileLayer).values()) {
+            cancelRender(tileView, RENDER_TASK_KEY);
+        }
+        tilesOf(tileLayer).clear();
+        tileLayer.getChildren().clear();
+    }
 
-        double viewportHeight = scrollPane.getViewportBounds().getHeight();
-        double scrollY = scrollPane.getVvalue() * (pdfContainer.getHeight() - viewportHeight);
+    private RenderScheduler.Priority renderPriority(int pageNum) {
+        if (pageList.isInViewport(pageNum)) {
+            return RenderScheduler.Priority.VISIBLE;
+        }
+        if (pageList.isInViewport(pageNum - 1) || pageList.isInViewport(pageNum + 1)) {
+            return RenderScheduler.Priority.ADJACENT;
+        }
+        return RenderScheduler.Priority.PREFETCH;
+    }
 
-        System.out.println("Detecting visible page - Scroll Y: " + scrollY +
-                ", Viewport Height: " + viewportHeight);
+    private static void cancelRender(ImageView pageView, String taskKey) {
+        Object task = pageView.getProperties().remove(taskKey);
+        if (task instanceof CompletableFuture) {
+            ((CompletableFuture<?>) task).cancel(false);
+        }
+    }
 
-        int bestMatchPage = 0;
-        double bestVisibleArea = 0;
+    private boolean isCurrentRender(int pageNum, ImageView targetView, String pdfPath, double zoom, int rotation) {
+        return pageList.isBound(pageNum, targetView)
+                && zoom == currentZoom
+                && rotation == currentRotation
+                && Objects.equals(pdfPath, currentPdfPath);
+    }
 
-        for (Node node : pdfContainer.getChildren()) {
-            VBox pageBox = (VBox) node;
-            Bounds bounds = pageBox.getBoundsInParent();
-            int pageNum = (int) pageBox.getUserData();
+    private void finishRender() {
+        pendingRenders = Math.max(0, pendingRenders - 1);
+        if (pendingRenders == 0) {
+            loadingIndicator.setVisible(false);
+            System.out.println("All visible pages rendered at zoom " + currentZoom);
+        }
+    }
 
-            // Calculate visible area of the page
-            double pageTop = bounds.getMinY();
-            double pageBottom = bounds.getMaxY();
-            double pageHeight = bounds.getHeight();
+    private void updateThumbnails() {
+        thumbnailTab = activeTab;
+        thumbnailKey = thumbnailCache.documentKey(new File(currentPdfPath));
+        storedThumbnails = thumbnailCache.storedPages(thumbnailKey);
+        thumbnailCache.touch(thumbnailKey);
+        // Thumbnails are made as they scroll into the strip
+        DocumentSession session = thumbnailTab.getSession();
+        thumbnailList.setDocument(session.getPageWidths(), session.getPageHeights());
+    }
 
-            double visibleTop = Math.max(scrollY, pageTop);
-            double visibleBottom = Math.min(scrollY + viewportHeight, pageBottom);
-            double visibleArea = Math.max(0, visibleBottom - visibleTop);
+    private void showThumbnail(DocumentTab documentTab, int pageNum, ImageView thumbnail) {
+        DocumentSession session = documentTab.getSession();
+        // A warm session still holds its thumbnails
+        Image kept = session.getThumbnail(pageNum);
+        if (kept != null) {
+            thumbnail.setImage(kept);
+            return;
+        }
 
-            System.out.println("Page " + (pageNum + 1) +
-                    " - Top: " + pageTop +
-                    ", Bottom: " + pageBottom +
-                    ", Visible Area: " + visibleArea);
+        if (storedThumbnails.get(pageNum)) {
+            Image stored = thumbnailCache.load(thumbnailKey, pageNum);
+            thumbnail.setImage(stored);
+            session.putThumbnail(pageNum, stored);
+            return;
+        }
 
-            if (visibleArea > bestVisibleArea) {
-                bestVisibleArea = visibleArea;
-                bestMatchPage = pageNum;
-            }
+        // Still being rendered for an earlier visit of the tab or of this part of the strip
+        CompletableFuture<Image> render = documentTab.getPendingThumbnail(pageNum);
+        if (render == null || render.isCancelled()) {
+            // Render thumbnail and persist it for the next time this document is opened
+            String key = thumbnailKey;
+            render = renderScheduler.schedule(session.getPath(), pageNum, THUMBNAIL_ZOOM, 0,
+                    RenderScheduler.Priority.THUMBNAIL, documentTab.getThumbnailGeneration());
+            CompletableFuture<Image> scheduled = render;
+            documentTab.putPendingThumbnail(pageNum, scheduled);
+            render.whenCompleteAsync((image, e) -> {
+                if (documentTab.getPendingThumbnail(pageNum) == scheduled) {
+                    documentTab.removePendingThumbnail(pageNum);
+                }
+                if (e != null) {
+                    return;
+                }
+                // The session keeps the image even if the tab went to the background meanwhile
+                session.putThumbnail(pageNum, image);
+                executorService.submit(() -> thumbnailCache.store(key, pageNum, image));
+            }, Platform::runLater);
         }
+        render.thenAcceptAsync(image -> {
+            // The view may show another page by now
+            if (documentTab == thumbnailTab && thumbnailList.isBound(pageNum, thumbnail)) {
+                thumbnail.setImage(image);
+            }
+        }, Platform::runLater);
+    }
+
+    private void detectVisiblePage() {
+        if (pageList.getPageCount() == 0)
+            return;
 
-        if (bestVisibleArea > 0 && bestMatchPage != currentPage) {
+        // Page offsets are known from the page sizes, no node bounds needed
+        int bestMatchPage = pageList.getMostVisiblePage();
+
+        if (bestMatchPage >= 0 && bestMatchPage != currentPage) {
             System.out.println("Most visible page changed to: " + (bestMatchPage + 1));
             updateCurrentPage(bestMatchPage);
         }
@@ -569,28 +1131,11 @@ public class MainController {
 
     private void scrollToPage(int pageNum) {
         System.out.println("Scrolling to page: " + (pageNum + 1));
-        VBox pageBox = pageContainers.get(pageNum);
-        if (pageBox != null) {
+        if (pageNum >= 0 && pageNum < pageList.getPageCount()) {
             isScrolling = true;
             Platform.runLater(() -> {
                 try {
-                    double contentHeight = pdfContainer.getHeight();
-                    double viewportHeight = scrollPane.getViewportBounds().getHeight();
-                    double pageTop = pageBox.getBoundsInParent().getMinY();
-
-                    // Calculate scroll position to center the page
-                    double pageHeight = pageBox.getBoundsInParent().getHeight();
-                    double targetY = pageTop - (viewportHeight - pageHeight) / 2;
-                    targetY = Math.max(0, Math.min(targetY, contentHeight - viewportHeight));
-
-                    double vvalue = targetY / (contentHeight - viewportHeight);
-                    vvalue = Math.max(0, Math.min(1, vvalue));
-
-                    System.out.println("Scrolling - Page " + (pageNum + 1) +
-                            " - Target Y: " + targetY +
-                            " - VValue: " + vvalue);
-
-                    scrollPane.setVvalue(vvalue);
+                    pageList.scrollToPage(pageNum);
                     updateCurrentPage(pageNum);
                 } catch (Exception e) {
                     System.err.println("Error during scroll: " + e.getMessage());
@@ -635,29 +1180,7 @@ public class MainController {
     }
 
     private void highlightThumbnail(int pageNum) {
-        Platform.runLater(() -> {
-            if (currentSelectedThumbnail != null) {
-                currentSelectedThumbnail.getStyleClass().remove("thumbnail-selected");
-            }
-
-            VBox thumbnailBox = (VBox) thumbnailViews.get(pageNum).getParent();
-            if (thumbnailBox != null) {
-                thumbnailBox.getStyleClass().add("thumbnail-selected");
-                currentSelectedThumbnail = thumbnailBox;
-
-                // Ensure thumbnail is visible in the sidebar
-                ScrollPane thumbnailScroll = (ScrollPane) thumbnailContainer.getParent();
-                double thumbY = thumbnailBox.getBoundsInParent().getMinY();
-                double viewportHeight = thumbnailScroll.getViewportBounds().getHeight();
-                double contentHeight = thumbnailContainer.getHeight();
-
-                if (contentHeight > viewportHeight) {
-                    double vvalue = thumbY / (contentHeight - viewportHeight);
-                    vvalue = Math.max(0, Math.min(1, vvalue));
-                    thumbnailScroll.setVvalue(vvalue);
-                }
-            }
-        });
+        Platform.runLater(() -> thumbnailList.select(pageNum));
     }
 
     private void updateNavigationButtons() {
@@ -726,26 +1249,21 @@ public class MainController {
             // Unselect fit page if it's selected
             fitPageToggle.setSelected(false);
 
-            // Calculate zoom to fit width
-            if (!pdfContainer.getChildren().isEmpty()) {
-                VBox pageBox = (VBox) pdfContainer.getChildren().get(currentPage);
-                ImageView pageView = (ImageView) pageBox.getChildren().get(0);
-
-                if (pageView.getImage() != null) {
-                    double imageWidth = pageView.getImage().getWidth();
-                    double viewportWidth = scrollPane.getViewportBounds().getWidth();
-                    // Account for padding and margins
-                    viewportWidth = Math.max(1, viewportWidth - 40); // 20px padding on each side
-
-                    double newZoom = viewportWidth / imageWidth;
-                    System.out.println("Fit Width - Image width: " + imageWidth +
-                            ", Viewport width: " + viewportWidth +
-                            ", New zoom: " + newZoom);
-
-                    currentZoom = newZoom;
-                    updateZoomComboBox();
-                    renderAllPages();
-                }
+            // Calculate zoom to fit width from the page size in points
+            if (pageList.getPageCount() > 0) {
+                double pageWidth = pageList.getPageWidth(currentPage);
+                double viewportWidth = scrollPane.getViewportBounds().getWidth();
+                // Account for padding and margins
+                viewportWidth = Math.max(1, viewportWidth - 40); // 20px padding on each side
+
+                double newZoom = viewportWidth / pageWidth;
+                System.out.println("Fit Width - Page width: " + pageWidth +
+                        ", Viewport width: " + viewportWidth +
+                        ", New zoom: " + newZoom);
+
+                currentZoom = newZoom;
+                updateZoomComboBox();
+                renderAllPages();
             }
         }
     }
@@ -756,42 +1274,42 @@ public class MainController {
             // Unselect fit width if it's selected
             fitWidthToggle.setSelected(false);
 
-            // Calculate zoom to fit page
-            if (!pdfContainer.getChildren().isEmpty()) {
-                VBox pageBox = (VBox) pdfContainer.getChildren().get(currentPage);
-                ImageView pageView = (ImageView) pageBox.getChildren().get(0);
+            // Calculate zoom to fit page from the page size in points
+            if (pageList.getPageCount() > 0) {
+                double pageWidth = pageList.getPageWidth(currentPage);
+                double pageHeight = pageList.getPageHeight(currentPage);
+                double viewportWidth = scrollPane.getViewportBounds().getWidth();
+                double viewportHeight = scrollPane.getViewportBounds().getHeight();
 
-                if (pageView.getImage() != null) {
-                    double imageWidth = pageView.getImage().getWidth();
-                    double imageHeight = pageView.getImage().getHeight();
-                    double viewportWidth = scrollPane.getViewportBounds().getWidth();
-                    double viewportHeight = scrollPane.getViewportBounds().getHeight();
+                // Account for padding and margins
+                viewportWidth = Math.max(1, viewportWidth - 40); // 20px padding on each side
+                viewportHeight = Math.max(1, viewportHeight - 40); // 20px padding on each side
 
-                    // Account for padding and margins
-                    viewportWidth = Math.max(1, viewportWidth - 40); // 20px padding on each side
-                    viewportHeight = Math.max(1, viewportHeight - 40); // 20px padding on each side
+                // Calculate zoom factors for both width and height
+                double widthZoom = viewportWidth / pageWidth;
+                double heightZoom = viewportHeight / pageHeight;
 
-                    // Calculate zoom factors for both width and height
-                    double widthZoom = viewportWidth / imageWidth;
-                    double heightZoom = viewportHeight / imageHeight;
+                // Use the smaller zoom factor to ensure the entire page fits
+                double newZoom = Math.min(widthZoom, heightZoom);
 
-                    // Use the smaller zoom factor to ensure the entire page fits
-                    double newZoom = Math.min(widthZoom, heightZoom);
+                System.out.println("Fit Page - Page size: " + pageWidth + "x" + pageHeight +
+                        ", Viewport size: " + viewportWidth + "x" + viewportHeight +
+                        ", New zoom: " + newZoom);
 
-                    System.out.println("Fit Page - Image size: " + imageWidth + "x" + imageHeight +
-                            ", Viewport size: " + viewportWidth + "x" + viewportHeight +
-                            ", New zoom: " + newZoom);
-
-                    currentZoom = newZoom;
-                    updateZoomComboBox();
-                    renderAllPages();
-                }
+                currentZoom = newZoom;
+                updateZoomComboBox();
+                renderAllPages();
             }
         }
     }
 
     private void handleRotate(int degrees) {
-        pdfImageView.setRotate((pdfImageView.getRotate() + degrees) % 360);
+        // Pages are rendered rotated so the layout and the image cache see the real orientation
+        currentRotation = ((currentRotation + degrees) % 360 + 360) % 360;
+        System.out.println("Rotation changed to " + currentRotation);
+        if (totalPages > 0) {
+            renderAllPages();
+        }
     }
 
     private void updateStatusBar() {
@@ -855,6 +1373,17 @@ public class MainController {
 
     public void shutdown() {
         executorService.shutdown();
+        if (sessions != null) {
+            sessions.close();
+        }
+        if (renderScheduler != null) {
+            renderScheduler.close();
+        }
+        if (pdfRenderer != null) {
+            pdfRenderer.close();
+        }
+        textLayers.close();
+        DocumentHandlePool.getDefault().close();
     }
 
     // Add window resize listener to maintain fit modes
@@ -0,0 +1,354 @@
+package com.pdfxplorer.pdf;
+
+import com.pdfxplorer.service.LazyPageTree;
+import com.pdfxplorer.service.PdfReaderService;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Open PDDocuments shared by the threads that render, search and select.
+ * A PDDocument is not thread-safe, so each file gets up to a fixed number of
+ * handles, separate documents over the same bytes, and a thread leases one
+ * for as long as it works on it; when all are leased the next thread waits.
+ *
+ * The file is memory-mapped once and every handle parses its own reader
+ * over the mapping, so the bytes live in the page cache rather than once per
+ * handle on the heap.
+ *
+ * Handles of a limited number of files stay open, least recently used
+ * closed first. Files pinned by an open tab are never closed to make room.
+ */
+public class DocumentHandlePool implements AutoCloseable {
+    // Documents opened at most per file, i.e. how many threads can work on one file at once
+    public static final String HANDLES_PROPERTY = "pdfxplorer.documents.handlesPerFile";
+
+    // Files whose handles stay open besides the pinned ones, least recently used closed first
+    public static final String MAX_OPEN_FILES_PROPERTY = "pdfxplorer.documents.maxOpenFiles";
+
+    private static DocumentHandlePool defaultPool;
+
+    private static final class Handle {
+        private final OpenFile file;
+        private final PDDocument document;
+        private PDFRenderer renderer;
+        private LazyPageTree pages;
+
+        Handle(OpenFile file, PDDocument document) {
+            this.file = file;
+            this.document = document;
+        }
+    }
+
+    private static final class OpenFile {
+        private final File file;
+        private SharedMappedFile mapped;
+        private final Deque<Handle> idle = new ArrayDeque<>();
+        // Handles open or being opened, leased or idle
+        private int handleCount = 0;
+        // No longer handed out; closed once the last handle comes back
+        private boolean retired = false;
+
+        OpenFile(File file) {
+            this.file = file;
+        }
+
+        RandomAccessRead newSource() throws IOException {
+            if ("buffered".equals(System.getProperty(PdfReaderService.SOURCE_PROPERTY))) {
+                return PdfReaderService.openSource(file);
+            }
+            if (mapped == null) {
+                mapped = SharedMappedFile.map(file);
+            }
+            // Each handle reads the shared mapping at its own position
+            return mapped.newReader();
+        }
+    }
+
+    /**
+     * A document leased to one thread; close it to hand the document back.
+     */
+    public final class Lease implements AutoCloseable {
+        private Handle handle;
+
+        private Lease(Handle handle) {
+            this.handle = handle;
+        }
+
+        public PDDocument getDocument() {
+            return handle.document;
+        }
+
+        /**
+         * A renderer for the leased document, kept with it for the next lease.
+         */
+        public PDFRenderer getRenderer() {
+            if (handle.renderer == null) {
+                handle.renderer = new PDFRenderer(handle.document);
+            }
+            return handle.renderer;
+        }
+
+        /**
+         * Lazy page access for the leased document, kept with it for the next lease.
+         */
+        public LazyPageTree getPages() {
+            if (handle.pages == null) {
+                handle.pages = new LazyPageTree(handle.document);
+            }
+            return handle.pages;
+        }
+
+        @Override
+        public void close() {
+            if (handle != null) {
+                giveBack(handle);
+                handle = null;
+            }
+        }
+    }
+
+    private final int handlesPerFile;
+    private final int maxOpenFiles;
+    // Guarded by this
+    private final Map<String, OpenFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    // Pins per absolute path; a pinned file's handles are not closed for capacity
+    private final Map<String, Integer> pins = new HashMap<>();
+    private boolean closed = false;
+
+    public DocumentHandlePool() {
+        this(Integer.getInteger(HANDLES_PROPERTY, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public DocumentHandlePool(int handlesPerFile) {
+        this(handlesPerFile, Integer.getInteger(MAX_OPEN_FILES_PROPERTY, 4));
+    }
+
+    public DocumentHandlePool(int handlesPerFile, int maxOpenFiles) {
+        this.handlesPerFile = Math.max(1, handlesPerFile);
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+    }
+
+    /**
+     * The pool shared by everything that works on the open documents.
+     */
+    public static synchronized DocumentHandlePool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new DocumentHandlePool();
+        }
+        return defaultPool;
+    }
+
+    private static String fileKey(File file) {
+        // An edited file gets new handles
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * Leases a document of the file, waiting while all of its handles are in use.
+     */
+    public Lease lease(File file) throws IOException {
+        String key = fileKey(file);
+        OpenFile openFile;
+        Handle reused = null;
+        List<Handle> toClose = new ArrayList<>();
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IOException("Document pool is closed");
+                }
+                openFile = files.get(key);
+                if (openFile == null) {
+                    openFile = new OpenFile(file);
+                    files.put(key, openFile);
+                    retireStaleFiles(openFile, toClose);
+                }
+                if (!openFile.idle.isEmpty()) {
+                    reused = openFile.idle.pop();
+                    break;
+                }
+                if (openFile.handleCount < handlesPerFile) {
+                    openFile.handleCount++;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a document", e);
+                }
+            }
+        }
+        closeAll(toClose);
+        if (reused != null) {
+            return new Lease(reused);
+        }
+
+        // Parsing takes a while; other threads are served meanwhile
+        RandomAccessRead source;
+        try {
+            synchronized (openFile) {
+                source = openFile.newSource();
+            }
+            return new Lease(new Handle(openFile, PdfReaderService.loadDocument(source, "")));
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                openFile.handleCount--;
+                notifyAll();
+            }
+            closeIfDrained(openFile);
+            throw e;
+        }
+    }
+
+    private void retireStaleFiles(OpenFile current, List<Handle> toClose) {
+        // Least recently used first; an older version of the same file goes too
+        String path = current.file.getAbsolutePath();
+        int excess = files.size() - maxOpenFiles;
+        Iterator<OpenFile> iterator = files.values().iterator();
+        while (iterator.hasNext()) {
+            OpenFile openFile = iterator.next();
+            if (openFile == current) {
+                continue;
+            }
+            String openPath = openFile.file.getAbsolutePath();
+            if (openPath.equals(path) || (excess > 0 && !pins.containsKey(openPath))) {
+                iterator.remove();
+                excess--;
+                openFile.retired = true;
+                toClose.addAll(openFile.idle);
+                openFile.idle.clear();
+            }
+        }
+    }
+
+    private void giveBack(Handle handle) {
+        synchronized (this) {
+            if (!handle.file.retired && !closed) {
+                handle.file.idle.push(handle);
+                notifyAll();
+                return;
+            }
+        }
+        closeHandle(handle);
+    }
+
+    private void closeAll(List<Handle> handles) {
+        for (Handle handle : handles) {
+            closeHandle(handle);
+        }
+        handles.clear();
+    }
+
+    private void closeHandle(Handle handle) {
+        try {
+            handle.document.close();
+        } catch (IOException e) {
+            System.err.println("Error closing document: " + e.getMessage());
+        }
+        synchronized (this) {
+            handle.file.handleCount--;
+            notifyAll();
+        }
+        closeIfDrained(handle.file);
+    }
+
+    private void closeIfDrained(OpenFile openFile) {
+        synchronized (this) {
+            if (!openFile.retired || openFile.handleCount > 0) {
+                return;
+            }
+        }
+        // Every handle on the mapping is closed
+        synchronized (openFile) {
+            if (openFile.mapped != null) {
+                openFile.mapped.close();
+                openFile.mapped = null;
+            }
+        }
+    }
+
+    /**
+     * Closes the idle handles of a file; leased ones close when they come back.
+     */
+    public void release(File file) {
+        List<Handle> toClose = new ArrayList<>();
+        synchronized (this) {
+            String path = file.getAbsolutePath();
+            Iterator<OpenFile> iterator = files.values().iterator();
+            while (iterator.hasNext()) {
+                OpenFile openFile = iterator.next();
+                if (openFile.file.getAbsolutePath().equals(path)) {
+                    iterator.remove();
+                    openFile.retired = true;
+                    toClose.addAll(openFile.idle);
+                    openFile.idle.clear();
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Keeps the handles of a file open while a tab shows it, however many
+     * other files are used meanwhile. Pins are counted per path.
+     */
+    public synchronized void pin(File file) {
+        pins.merge(file.getAbsolutePath(), 1, Integer::sum);
+    }
+
+    /**
+     * Lets go of a pin; the file's handles may be closed to make room the
+     * next time another file is opened.
+     */
+    public synchronized void unpin(File file) {
+        pins.computeIfPresent(file.getAbsolutePath(), (path, count) -> count > 1 ? count - 1 : null);
+    }
+
+    public int getHandlesPerFile() {
+        return handlesPerFile;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    @Override
+    public void close() {
+        List<Handle> toClose = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (OpenFile openFile : files.values()) {
+                openFile.retired = true;
+                toClose.addAll(openFile.idle);
+                openFile.idle.clear();
+            }
+            files.clear();
+            pins.clear();
+            notifyAll();
+        }
+        closeAll(toClose);
+    }
+
+    @Override
+    public synchronized String toString() {
+        int open = 0;
+        int idle = 0;
+        for (OpenFile openFile : files.values()) {
+            open += openFile.handleCount;
+            idle += openFile.idle.size();
+        }
+        return String.format("DocumentHandlePool[%d files, %d handles, %d idle]", files.size(), open, idle);
+    }
+}
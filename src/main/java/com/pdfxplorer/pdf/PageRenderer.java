@@ -0,0 +1,38 @@
+package com.pdfxplorer.pdf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A render engine for the pages of PDF files. Zoom is in pixels per point,
+ * rotation is the viewer's extra clockwise rotation in degrees, and a clip is
+ * given in pixels of the zoomed and rotated page. Document info has the
+ * layout the MuPDF workers return: page_count and page_sizes, a list of
+ * {width, height} in points with the page's own rotation applied.
+ */
+public interface PageRenderer extends AutoCloseable {
+
+    default CompletableFuture<Image> renderPage(String pdfPath, int pageNumber, double zoom) {
+        return renderPage(pdfPath, pageNumber, zoom, 0);
+    }
+
+    default CompletableFuture<Image> renderPage(String pdfPath, int pageNumber, double zoom, int rotation) {
+        return renderPage(pdfPath, pageNumber, zoom, rotation, null);
+    }
+
+    CompletableFuture<Image> renderPage(String pdfPath, int pageNumber, double zoom, int rotation,
+            Rectangle2D clip);
+
+    CompletableFuture<JsonNode> getDocumentInfo(String pdfPath);
+
+    /**
+     * How many pages the engine can render at once.
+     */
+    int getWorkerCount();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,254 @@
+package com.pdfxplorer.pdf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pdfxplorer.service.LazyPageTree;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders pages inside the JVM with PDFBox, so simple documents need no
+ * Python workers at all. Pages are drawn straight into a reused int[] of
+ * premultiplied ARGB pixels and copied once into a WritableImage, instead of
+ * going through a fresh BufferedImage and SwingFXUtils for every page.
+ *
+ * Every render leases its own document from the shared DocumentHandlePool,
+ * so several pages of one file render at once on separate handles.
+ */
+public class PdfBoxPageRenderer implements PageRenderer {
+    // Pixel buffers up to this size (4 MB) stay with their thread for the next render. That covers
+    // tiles and thumbnails; larger page images get a buffer of their own, so each render thread
+    // holds at most a few MB between renders.
+    private static final int MAX_RETAINED_BUFFER_PIXELS = 1024 * 1024;
+
+    private static final DirectColorModel ARGB_PRE = (DirectColorModel) new BufferedImage(1, 1,
+            BufferedImage.TYPE_INT_ARGB_PRE).getColorModel();
+    private static final ThreadLocal<int[]> PIXEL_BUFFERS = ThreadLocal.withInitial(() -> new int[0]);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor;
+    private final int workerCount;
+    private final DocumentHandlePool documents;
+    private volatile boolean closed = false;
+
+    public PdfBoxPageRenderer() {
+        this(Integer.getInteger(PythonPdfRenderer.WORKER_COUNT_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                DocumentHandlePool.getDefault());
+    }
+
+    public PdfBoxPageRenderer(int workerCount, DocumentHandlePool documents) {
+        this.workerCount = Math.max(1, workerCount);
+        this.documents = documents;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.workerCount, task -> {
+            Thread thread = new Thread(task, "pdfbox-render-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Image> renderPage(String pdfPath, int pageNumber, double zoom, int rotation,
+            Rectangle2D clip) {
+        CompletableFuture<Image> result = new CompletableFuture<>();
+        if (closed) {
+            result.cancel(false);
+            return result;
+        }
+        try {
+            executor.execute(() -> {
+                // Cancelled while it was queued
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(withDocument(pdfPath, lease -> {
+                        PDPage page = lease.getPages().get(pageNumber);
+                        return renderToImage(lease.getRenderer(), page, pageNumber, (float) zoom, rotation, clip);
+                    }));
+                } catch (CancellationException e) {
+                    result.cancel(false);
+                } catch (Exception e) {
+                    result.completeExceptionally(
+                            new RuntimeException("Failed to render PDF page: " + e.getMessage(), e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile
+            result.cancel(false);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<JsonNode> getDocumentInfo(String pdfPath) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return withDocument(pdfPath, lease -> documentInfo(lease.getPages()));
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to get document info: " + e.getMessage(), e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new CancellationException("Renderer was closed"));
+        }
+    }
+
+    private interface DocumentTask<T> {
+        T run(DocumentHandlePool.Lease lease) throws IOException;
+    }
+
+    /**
+     * Runs a task on a document of the file leased for this thread.
+     */
+    private <T> T withDocument(String pdfPath, DocumentTask<T> task) throws IOException {
+        if (closed) {
+            throw new CancellationException("Renderer was closed");
+        }
+        try (DocumentHandlePool.Lease lease = documents.lease(new File(pdfPath))) {
+            return task.run(lease);
+        }
+    }
+
+    private JsonNode documentInfo(LazyPageTree pages) {
+        PDDocument document = pages.getDocument();
+        ObjectNode info = objectMapper.createObjectNode();
+        info.put("page_count", pages.getCount());
+        info.put("is_encrypted", document.isEncrypted());
+
+        PDDocumentInformation information = document.getDocumentInformation();
+        info.putObject("metadata")
+                .put("format", "PDF " + document.getVersion())
+                .put("title", nullToEmpty(information.getTitle()))
+                .put("author", nullToEmpty(information.getAuthor()))
+                .put("subject", nullToEmpty(information.getSubject()))
+                .put("keywords", nullToEmpty(information.getKeywords()))
+                .put("creator", nullToEmpty(information.getCreator()))
+                .put("producer", nullToEmpty(information.getProducer()));
+
+        // Sizes as displayed, like MuPDF's page.rect
+        ArrayNode pageSizes = info.putArray("page_sizes");
+        for (int i = 0; i < pages.getCount(); i++) {
+            float[] size = pages.getDisplaySize(i);
+            pageSizes.addObject()
+                    .put("width", size[0])
+                    .put("height", size[1]);
+        }
+        return info;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Renders a page, or the clipped region of it, at the given pixels per
+     * point and extra clockwise rotation. The caller must have the renderer's
+     * document to itself, through a lease or its lock.
+     */
+    public static WritableImage renderToImage(PDFRenderer renderer, PDPage page, int pageIndex, float scale,
+            int rotation, Rectangle2D clip) throws IOException {
+        PDRectangle cropBox = page.getCropBox();
+        boolean pageQuarterTurn = page.getRotation() % 180 != 0;
+        // Size of the page as PDFBox draws it, with the page's own rotation
+        double drawnWidth = (pageQuarterTurn ? cropBox.getHeight() : cropBox.getWidth()) * scale;
+        double drawnHeight = (pageQuarterTurn ? cropBox.getWidth() : cropBox.getHeight()) * scale;
+        int turns = Math.floorMod(rotation / 90, 4);
+        boolean viewQuarterTurn = turns % 2 != 0;
+
+        int width;
+        int height;
+        if (clip != null) {
+            width = Math.max(1, (int) Math.ceil(clip.getWidth()));
+            height = Math.max(1, (int) Math.ceil(clip.getHeight()));
+        } else {
+            // Rounded like PDFRenderer.renderImage()
+            width = (int) Math.max(Math.floor(viewQuarterTurn ? drawnHeight : drawnWidth), 1);
+            height = (int) Math.max(Math.floor(viewQuarterTurn ? drawnWidth : drawnHeight), 1);
+        }
+
+        int pixelCount = width * height;
+        int[] pixels = PIXEL_BUFFERS.get();
+        if (pixels.length < pixelCount) {
+            pixels = new int[pixelCount];
+        }
+        // Opaque white paper; PDFBox only draws what the page paints
+        Arrays.fill(pixels, 0, pixelCount, 0xFFFFFFFF);
+
+        // A BufferedImage over the shared array, so Java2D draws into it directly
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixelCount), width, height,
+                width, ARGB_PRE.getMasks(), null);
+        BufferedImage canvas = new BufferedImage(ARGB_PRE, raster, true, null);
+        Graphics2D graphics = canvas.createGraphics();
+        try {
+            graphics.setBackground(Color.WHITE);
+            // The clip lets PDFBox skip everything outside the image
+            graphics.clipRect(0, 0, width, height);
+            if (clip != null) {
+                graphics.translate(-clip.getMinX(), -clip.getMinY());
+            }
+            switch (turns) {
+                case 1:
+                    graphics.translate(drawnHeight, 0);
+                    break;
+                case 2:
+                    graphics.translate(drawnWidth, drawnHeight);
+                    break;
+                case 3:
+                    graphics.translate(0, drawnWidth);
+                    break;
+                default:
+                    break;
+            }
+            graphics.rotate(Math.toRadians(turns * 90));
+            renderer.renderPageToGraphics(pageIndex, graphics, scale);
+        } finally {
+            graphics.dispose();
+        }
+
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        // A huge page's buffer is not worth keeping around
+        PIXEL_BUFFERS.set(pixels.length <= MAX_RETAINED_BUFFER_PIXELS ? pixels : new int[0]);
+        return image;
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // The documents belong to the shared pool
+        executor.shutdownNow();
+    }
+}
@@ -2,22 +2,52 @@ package com.pdfxplorer.pdf;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.InputStreamReader;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class PythonPdfRenderer implements PageRenderer {
+    // Overrides the number of render worker processes (defaults to the core count)
+    public static final String WORKER_COUNT_PROPERTY = "pdfxplorer.render.workers";
+    // Asks the workers to deflate pixel payloads; only worth it over slow pipes
+    public static final String COMPRESS_PROPERTY = "pdfxplorer.render.compress";
+    // Frame transport: "pipe", "shm" or "auto" (shared memory for large frames only)
+    public static final String TRANSPORT_PROPERTY = "pdfxplorer.render.transport";
+
+    // Below this size a frame is cheaper to push through the pipe than to map
+    private static final long SHARED_FRAME_MIN_BYTES = 4L * 1024 * 1024;
 
-public class PythonPdfRenderer {
     private final String pythonScript;
     private final ObjectMapper objectMapper;
-    private Process pythonProcess;
-    private String currentPdfPath;
+    private final RenderWorkerPool workerPool;
+    private final boolean compressFrames = Boolean.getBoolean(COMPRESS_PROPERTY);
+    private final Path sharedFrameDir;
+    private final long sharedFrameMinBytes;
 
     public PythonPdfRenderer() {
+        this(Integer.getInteger(WORKER_COUNT_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public PythonPdfRenderer(int workerCount) {
         this.objectMapper = new ObjectMapper();
         // Get the absolute path to the Python script and interpreter
         String userDir = System.getProperty("user.dir");
@@ -28,6 +58,13 @@ public class PythonPdfRenderer {
         if (!java.nio.file.Files.exists(Paths.get(pythonScript))) {
             throw new RuntimeException("Python script not found at: " + pythonScript);
         }
+
+        String transport = System.getProperty(TRANSPORT_PROPERTY, "auto");
+        this.sharedFrameDir = "pipe".equals(transport) ? null : findSharedFrameDir();
+        this.sharedFrameMinBytes = "shm".equals(transport) ? 0 : SHARED_FRAME_MIN_BYTES;
+
+        this.workerPool = new RenderWorkerPool(Math.max(1, workerCount),
+                getPythonInterpreter(), pythonScript, objectMapper);
     }
 
     private String getPythonInterpreter() {
@@ -41,101 +78,191 @@ public class PythonPdfRenderer {
         return "python3"; // Fallback to system Python
     }
 
-    public CompletableFuture<Image> renderPage(String pdfPath, int pageNumber, double zoom) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Build the command with python3 from virtual environment
-                ProcessBuilder processBuilder = new ProcessBuilder(
-                        getPythonInterpreter(),
-                        pythonScript,
-                        "render",
-                        pdfPath,
-                        String.valueOf(pageNumber),
-                        String.valueOf(zoom));
-
-                // Set up process environment
-                processBuilder.redirectErrorStream(true);
-
-                // Start the process
-                Process process = processBuilder.start();
-
-                // Read the output
-                StringBuilder output = new StringBuilder();
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(process.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        output.append(line);
-                        System.out.println("Python output: " + line); // Debug output
-                    }
-                }
-
-                // Wait for the process to complete
-                int exitCode = process.waitFor();
-                if (exitCode != 0) {
-                    throw new RuntimeException(
-                            "Python process failed with exit code: " + exitCode + "\nOutput: " + output);
-                }
+    private static Path findSharedFrameDir() {
+        // tmpfs on Linux; elsewhere the temp dir stays in the page cache for short-lived files
+        Path shm = Paths.get("/dev/shm");
+        if (Files.isDirectory(shm) && Files.isWritable(shm)) {
+            return shm;
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"));
+    }
 
-                // Parse the JSON response
-                JsonNode response = objectMapper.readTree(output.toString());
+    private CompletableFuture<RenderFrame> sendRequest(String pdfPath, ObjectNode request) {
+        try {
+            return workerPool.acquire(pdfPath).send(request);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                if (!response.get("success").asBoolean()) {
-                    throw new RuntimeException("Python renderer error: " +
-                            response.get("error").asText());
-                }
+    /**
+     * Renders only the given region of the page, in pixels of the zoomed and
+     * rotated page, so huge pages can be rendered tile by tile.
+     */
+    @Override
+    public CompletableFuture<Image> renderPage(String pdfPath, int pageNumber, double zoom, int rotation,
+            Rectangle2D clip) {
+        ObjectNode request = objectMapper.createObjectNode()
+                .put("command", "render")
+                .put("path", pdfPath)
+                .put("page", pageNumber)
+                .put("zoom", zoom)
+                .put("rotation", rotation)
+                .put("compress", compressFrames);
+        if (clip != null) {
+            request.putArray("clip")
+                    .add(clip.getMinX())
+                    .add(clip.getMinY())
+                    .add(clip.getWidth())
+                    .add(clip.getHeight());
+        }
+        if (sharedFrameDir != null) {
+            request.put("shm_dir", sharedFrameDir.toString())
+                    .put("shm_min_bytes", sharedFrameMinBytes);
+        }
 
-                // Convert base64 image to JavaFX Image
-                String base64Image = response.get("image").asText();
-                byte[] imageData = Base64.getDecoder().decode(base64Image);
-                return new Image(new ByteArrayInputStream(imageData));
+        CompletableFuture<RenderFrame> frame = sendRequest(pdfPath, request);
+        CompletableFuture<Image> image = frame
+                .thenApplyAsync(this::toImage)
+                .exceptionally(e -> {
+                    if (RenderScheduler.isCancellation(e)) {
+                        throw new CancellationException("Render was cancelled");
+                    }
+                    throw new RuntimeException("Failed to render PDF page: " + rootMessage(e), e);
+                });
 
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to render PDF page: " + e.getMessage(), e);
+        // Dependent stages don't cancel their source, so abort the worker request explicitly
+        image.whenComplete((result, e) -> {
+            if (image.isCancelled()) {
+                frame.cancel(false);
             }
         });
+        return image;
     }
 
+    @Override
     public CompletableFuture<JsonNode> getDocumentInfo(String pdfPath) {
-        return CompletableFuture.supplyAsync(() -> {
+        ObjectNode request = objectMapper.createObjectNode()
+                .put("command", "info")
+                .put("path", pdfPath);
+
+        return sendRequest(pdfPath, request)
+                .thenApply(frame -> frame.getHeader().get("info"))
+                .exceptionally(e -> {
+                    throw new RuntimeException("Failed to get document info: " + rootMessage(e), e);
+                });
+    }
+
+    private Image toImage(RenderFrame frame) {
+        JsonNode header = frame.getHeader();
+        int width = header.get("width").asInt();
+        int height = header.get("height").asInt();
+        int stride = header.get("stride").asInt();
+        if ("shm".equals(header.path("transport").asText())) {
+            return mapSharedFrame(Paths.get(header.get("shm_path").asText()), width, height, stride);
+        }
+
+        byte[] pixels = frame.getPayload();
+
+        if ("deflate".equals(header.path("compression").asText())) {
+            pixels = inflate(pixels, stride * height);
+        }
+
+        // Raw samples go straight into the image, no PNG round trip
+        PixelFormat<ByteBuffer> format;
+        if ("rgb".equals(header.path("format").asText())) {
+            format = PixelFormat.getByteRgbInstance();
+        } else {
+            // MuPDF RGBA samples are premultiplied; JavaFX only takes BGRA ordering
+            swapRedAndBlue(pixels, width, height, stride);
+            format = PixelFormat.getByteBgraPreInstance();
+        }
+
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, format, pixels, 0, stride);
+        return image;
+    }
+
+    private static Image mapSharedFrame(Path segment, int width, int height, int stride) {
+        try {
+            MappedByteBuffer pixels;
+            try (FileChannel channel = FileChannel.open(segment,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                pixels = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) stride * height);
+            }
+
+            // Swap to BGRA in place; the samples never pass through the Java heap
+            IntBuffer words = pixels.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            for (int i = 0, count = words.limit(); i < count; i++) {
+                int rgba = words.get(i);
+                words.put(i, (rgba & 0xFF00FF00) | ((rgba & 0xFF) << 16) | ((rgba >>> 16) & 0xFF));
+            }
+
+            PixelBuffer<ByteBuffer> pixelBuffer = new PixelBuffer<>(width, height, pixels,
+                    PixelFormat.getByteBgraPreInstance());
+            return new WritableImage(pixelBuffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map shared frame " + segment, e);
+        } finally {
+            // The mapping stays valid after the file is gone
             try {
-                ProcessBuilder processBuilder = new ProcessBuilder(
-                        getPythonInterpreter(),
-                        pythonScript,
-                        "info",
-                        pdfPath);
-
-                processBuilder.redirectErrorStream(true);
-                Process process = processBuilder.start();
-
-                StringBuilder output = new StringBuilder();
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(process.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        output.append(line);
-                        System.out.println("Python output: " + line); // Debug output
-                    }
-                }
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                segment.toFile().deleteOnExit();
+            }
+        }
+    }
 
-                int exitCode = process.waitFor();
-                if (exitCode != 0) {
-                    throw new RuntimeException(
-                            "Python process failed with exit code: " + exitCode + "\nOutput: " + output);
+    private static byte[] inflate(byte[] compressed, int expectedLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] pixels = new byte[expectedLength];
+            int offset = 0;
+            while (offset < expectedLength && !inflater.finished()) {
+                int count = inflater.inflate(pixels, offset, expectedLength - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
                 }
+                offset += count;
+            }
+            if (offset != expectedLength) {
+                throw new IllegalStateException("Truncated pixel payload: " + offset + " of " + expectedLength);
+            }
+            return pixels;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt pixel payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
 
-                JsonNode response = objectMapper.readTree(output.toString());
+    private static void swapRedAndBlue(byte[] pixels, int width, int height, int stride) {
+        for (int y = 0; y < height; y++) {
+            int rowEnd = y * stride + width * 4;
+            for (int i = y * stride; i < rowEnd; i += 4) {
+                byte red = pixels[i];
+                pixels[i] = pixels[i + 2];
+                pixels[i + 2] = red;
+            }
+        }
+    }
 
-                if (!response.get("success").asBoolean()) {
-                    throw new RuntimeException("Python renderer error: " +
-                            response.get("error").asText());
-                }
+    private static String rootMessage(Throwable e) {
+        // Async stages wrap the original failure in a CompletionException
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e.getMessage();
+    }
 
-                return response.get("info");
+    @Override
+    public int getWorkerCount() {
+        return workerPool.size();
+    }
 
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to get document info: " + e.getMessage(), e);
-            }
-        });
+    @Override
+    public void close() {
+        workerPool.close();
     }
-}
\ No newline at end of file
+}
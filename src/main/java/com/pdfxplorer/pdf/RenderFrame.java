@@ -0,0 +1,27 @@
+package com.pdfxplorer.pdf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * One response from a render worker: the JSON header and the raw payload
+ * bytes that followed it on the wire (empty for non-render commands).
+ */
+class RenderFrame {
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    private final JsonNode header;
+    private final byte[] payload;
+
+    RenderFrame(JsonNode header, byte[] payload) {
+        this.header = header;
+        this.payload = payload != null ? payload : NO_PAYLOAD;
+    }
+
+    JsonNode getHeader() {
+        return header;
+    }
+
+    byte[] getPayload() {
+        return payload;
+    }
+}
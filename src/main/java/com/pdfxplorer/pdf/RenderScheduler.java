@@ -0,0 +1,275 @@
+package com.pdfxplorer.pdf;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Orders page renders by how urgently they are needed and drops superseded
+ * work before it reaches a render worker. Only a couple of requests per worker
+ * are handed to the renderer at a time; the rest wait here, where reordering
+ * and cancelling them is free.
+ *
+ * Generations in the background, e.g. those of tabs not on screen, are only
+ * served when no foreground request is waiting and then with a few in-flight
+ * slots at most, so the foreground always finds a worker soon. Among
+ * themselves background generations take turns request by request, so one
+ * document with many pages does not hold up the others.
+ */
+public class RenderScheduler implements AutoCloseable {
+    // Requests handed to the renderer per worker process; one rendering, one queued behind it
+    private static final int IN_FLIGHT_PER_WORKER = 2;
+    // Share of the in-flight requests background generations may hold
+    private static final int BACKGROUND_SHARE = 4;
+
+    public enum Priority {
+        VISIBLE,
+        ADJACENT,
+        THUMBNAIL,
+        PREFETCH
+    }
+
+    /**
+     * Groups the requests made for one view state, e.g. a document at a given
+     * zoom and rotation. Cancelling it drops everything still queued under it
+     * and aborts whatever is already in flight.
+     */
+    public static final class Generation {
+        private final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled = false;
+        // Guarded by the scheduler
+        private boolean background = false;
+        private long requests = 0;
+
+        public void cancel() {
+            cancelled = true;
+            for (Task task : tasks) {
+                task.result.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static final class Task {
+        private final String pdfPath;
+        private final int pageNumber;
+        private final double zoom;
+        private final int rotation;
+        private final Rectangle2D clip;
+        private final Priority priority;
+        private final long sequence;
+        // The how-manieth request of its generation, which decides its turn in the background
+        private final long turn;
+        private final CompletableFuture<Image> result = new CompletableFuture<>();
+        private volatile CompletableFuture<Image> running;
+        // Whether it holds one of the background in-flight slots; guarded by the scheduler
+        private boolean inBackgroundSlot = false;
+
+        private Task(String pdfPath, int pageNumber, double zoom, int rotation, Rectangle2D clip,
+                Priority priority, long sequence, long turn) {
+            this.pdfPath = pdfPath;
+            this.pageNumber = pageNumber;
+            this.zoom = zoom;
+            this.rotation = rotation;
+            this.clip = clip;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.turn = turn;
+        }
+    }
+
+    private final PageRenderer renderer;
+    private final int maxInFlight;
+    private final int maxBackgroundInFlight;
+    // Most urgent first, then first come first served
+    private final PriorityQueue<Task> queue = new PriorityQueue<>(
+            Comparator.comparing((Task task) -> task.priority).thenComparingLong(task -> task.sequence));
+    // Most urgent first, then each generation's first request before anyone's second
+    private final PriorityQueue<Task> backgroundQueue = new PriorityQueue<>(
+            Comparator.comparing((Task task) -> task.priority)
+                    .thenComparingLong(task -> task.turn)
+                    .thenComparingLong(task -> task.sequence));
+    private long nextSequence = 0;
+    private int inFlight = 0;
+    private int backgroundInFlight = 0;
+    private volatile boolean closed = false;
+
+    public RenderScheduler(PageRenderer renderer) {
+        this.renderer = renderer;
+        this.maxInFlight = renderer.getWorkerCount() * IN_FLIGHT_PER_WORKER;
+        this.maxBackgroundInFlight = Math.max(1, maxInFlight / BACKGROUND_SHARE);
+    }
+
+    public Generation newGeneration() {
+        return new Generation();
+    }
+
+    /**
+     * Moves a generation, with the requests it still has queued, to the
+     * background or back to the foreground.
+     */
+    public void setBackground(Generation generation, boolean background) {
+        synchronized (this) {
+            if (generation.background == background) {
+                return;
+            }
+            generation.background = background;
+            PriorityQueue<Task> from = background ? queue : backgroundQueue;
+            PriorityQueue<Task> to = background ? backgroundQueue : queue;
+            for (Task task : generation.tasks) {
+                if (from.remove(task)) {
+                    to.add(task);
+                }
+            }
+        }
+        dispatch();
+    }
+
+    public CompletableFuture<Image> schedule(String pdfPath, int pageNumber, double zoom, int rotation,
+            Priority priority, Generation generation) {
+        return schedule(pdfPath, pageNumber, zoom, rotation, null, priority, generation);
+    }
+
+    public CompletableFuture<Image> schedule(String pdfPath, int pageNumber, double zoom, int rotation,
+            Rectangle2D clip, Priority priority, Generation generation) {
+        Task task;
+        synchronized (this) {
+            task = new Task(pdfPath, pageNumber, zoom, rotation, clip, priority, nextSequence++,
+                    generation.requests++);
+        }
+        if (closed || generation.isCancelled()) {
+            task.result.cancel(false);
+            return task.result;
+        }
+
+        generation.tasks.add(task);
+        task.result.whenComplete((image, e) -> {
+            generation.tasks.remove(task);
+            if (!task.result.isCancelled()) {
+                return;
+            }
+            CompletableFuture<Image> running = task.running;
+            if (running != null) {
+                running.cancel(false);
+            } else {
+                synchronized (this) {
+                    if (!queue.remove(task)) {
+                        backgroundQueue.remove(task);
+                    }
+                }
+            }
+        });
+
+        // The generation may have been cancelled while the task was being registered
+        if (generation.isCancelled()) {
+            task.result.cancel(false);
+            return task.result;
+        }
+
+        synchronized (this) {
+            (generation.background ? backgroundQueue : queue).add(task);
+        }
+        dispatch();
+        return task.result;
+    }
+
+    private void dispatch() {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                if (closed || inFlight >= maxInFlight) {
+                    return;
+                }
+                task = queue.poll();
+                // Background work only when the foreground has nothing waiting
+                boolean inBackgroundSlot = false;
+                if (task == null && backgroundInFlight < maxBackgroundInFlight) {
+                    task = backgroundQueue.poll();
+                    inBackgroundSlot = true;
+                }
+                if (task == null) {
+                    return;
+                }
+                if (task.result.isDone()) {
+                    continue;
+                }
+                inFlight++;
+                if (inBackgroundSlot) {
+                    backgroundInFlight++;
+                    task.inBackgroundSlot = true;
+                }
+            }
+            start(task);
+        }
+    }
+
+    private void start(Task task) {
+        CompletableFuture<Image> running = renderer.renderPage(
+                task.pdfPath, task.pageNumber, task.zoom, task.rotation, task.clip);
+        task.running = running;
+        // Cancelled between leaving the queue and reaching the renderer
+        if (task.result.isCancelled()) {
+            running.cancel(false);
+        }
+
+        running.whenComplete((image, e) -> {
+            synchronized (this) {
+                inFlight--;
+                if (task.inBackgroundSlot) {
+                    backgroundInFlight--;
+                }
+            }
+            if (e == null) {
+                task.result.complete(image);
+            } else if (!isCancellation(e)) {
+                task.result.completeExceptionally(e instanceof CompletionException && e.getCause() != null
+                        ? e.getCause()
+                        : e);
+            } else {
+                task.result.cancel(false);
+            }
+            dispatch();
+        });
+    }
+
+    /**
+     * True if a failed render was merely cancelled and should not be reported.
+     */
+    public static boolean isCancellation(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e instanceof CancellationException;
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size() + backgroundQueue.size();
+    }
+
+    @Override
+    public void close() {
+        Task[] queued;
+        synchronized (this) {
+            closed = true;
+            List<Task> all = new ArrayList<>(queue);
+            all.addAll(backgroundQueue);
+            queued = all.toArray(new Task[0]);
+            queue.clear();
+            backgroundQueue.clear();
+        }
+        for (Task task : queued) {
+            task.result.cancel(false);
+        }
+    }
+}
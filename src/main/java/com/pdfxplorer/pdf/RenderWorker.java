@@ -0,0 +1,182 @@
+package com.pdfxplorer.pdf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A long-lived Python renderer process running pdf_renderer.py in "serve" mode.
+ * Requests are written as JSON lines on stdin. Each response is a binary frame
+ * (4-byte header length, JSON header, raw payload) matched back to its future
+ * by request ID, so many requests can be in flight at once.
+ */
+class RenderWorker implements AutoCloseable {
+    private final ObjectMapper objectMapper;
+    private final Process process;
+    private final BufferedWriter writer;
+    private final Map<Long, CompletableFuture<RenderFrame>> pendingRequests = new ConcurrentHashMap<>();
+    // Guarded by writer
+    private long nextRequestId = 1;
+    private volatile boolean closed = false;
+
+    RenderWorker(String pythonInterpreter, String pythonScript, ObjectMapper objectMapper) throws IOException {
+        this.objectMapper = objectMapper;
+
+        ProcessBuilder processBuilder = new ProcessBuilder(pythonInterpreter, pythonScript, "serve");
+        // stdout carries the protocol, so diagnostics must not be mixed into it
+        processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        this.process = processBuilder.start();
+        this.writer = new BufferedWriter(
+                new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread readerThread = new Thread(this::readResponses, "render-worker-" + process.pid());
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    CompletableFuture<RenderFrame> send(ObjectNode request) {
+        CompletableFuture<RenderFrame> future = new CompletableFuture<>();
+        long requestId;
+        // Ids are taken under the write lock so they reach the worker in order; it forgets cancels by that order
+        synchronized (writer) {
+            requestId = nextRequestId++;
+            pendingRequests.put(requestId, future);
+            request.put("id", requestId);
+            try {
+                writer.write(objectMapper.writeValueAsString(request));
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                pendingRequests.remove(requestId);
+                future.completeExceptionally(new RuntimeException("Failed to send request to render worker", e));
+            }
+        }
+
+        // A worker that died between the put and the write would never answer
+        if (!isAlive() && pendingRequests.remove(requestId) != null) {
+            future.completeExceptionally(new RuntimeException("Render worker is not running"));
+        }
+
+        // Cancelling the future tells the worker to skip the request if it has not started it yet
+        future.whenComplete((frame, e) -> {
+            if (future.isCancelled() && pendingRequests.remove(requestId) != null) {
+                sendCancel(requestId);
+            }
+        });
+        return future;
+    }
+
+    private void sendCancel(long requestId) {
+        ObjectNode cancel = objectMapper.createObjectNode()
+                .put("command", "cancel")
+                .put("target", requestId);
+        try {
+            String line = objectMapper.writeValueAsString(cancel);
+            synchronized (writer) {
+                writer.write(line);
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // A dead worker has nothing left to cancel
+        }
+    }
+
+    private void readResponses() {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(process.getInputStream(), 1 << 16))) {
+            while (true) {
+                int headerLength;
+                try {
+                    headerLength = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                byte[] headerBytes = new byte[headerLength];
+                input.readFully(headerBytes);
+                JsonNode header = objectMapper.readTree(headerBytes);
+
+                // The payload must be drained even if nobody is waiting for it
+                byte[] payload = new byte[header.path("payload_length").asInt(0)];
+                input.readFully(payload);
+
+                JsonNode id = header.get("id");
+                CompletableFuture<RenderFrame> future = id == null || id.isNull()
+                        ? null
+                        : pendingRequests.remove(id.asLong());
+                if (future == null) {
+                    // Cancelled after it was sent; the worker either skipped it or finished it anyway
+                    discardSharedFrame(header);
+                } else if (!header.path("success").asBoolean()) {
+                    future.completeExceptionally(new RuntimeException("Python renderer error: " +
+                            header.path("error").asText()));
+                } else {
+                    future.complete(new RenderFrame(header, payload));
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Render worker stream failed: " + e.getMessage());
+            }
+        } finally {
+            failPendingRequests();
+        }
+    }
+
+    private static void discardSharedFrame(JsonNode header) {
+        JsonNode segment = header.get("shm_path");
+        if (segment != null) {
+            try {
+                Files.deleteIfExists(Paths.get(segment.asText()));
+            } catch (IOException e) {
+                System.err.println("Could not remove shared frame " + segment.asText());
+            }
+        }
+    }
+
+    private void failPendingRequests() {
+        String reason = closed ? "Render worker was closed" : "Render worker exited unexpectedly";
+        for (Long requestId : pendingRequests.keySet()) {
+            CompletableFuture<RenderFrame> future = pendingRequests.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(new RuntimeException(reason));
+            }
+        }
+    }
+
+    int getPendingCount() {
+        return pendingRequests.size();
+    }
+
+    boolean isAlive() {
+        return !closed && process.isAlive();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            // Closing stdin lets the worker leave its request loop cleanly
+            synchronized (writer) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            // The process is being torn down anyway
+        }
+        process.destroy();
+        failPendingRequests();
+    }
+}
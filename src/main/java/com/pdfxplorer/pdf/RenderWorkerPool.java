@@ -0,0 +1,123 @@
+package com.pdfxplorer.pdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A fixed number of render worker slots. Requests go to the worker that already
+ * has the document open, unless it is busier than the least-loaded worker by more
+ * than a small slack, in which case the request is stolen by the idle worker.
+ * Workers are started on demand and replaced when they crash.
+ */
+class RenderWorkerPool implements AutoCloseable {
+    // Extra queued requests tolerated before leaving a worker with a warm document
+    private static final int AFFINITY_SLACK = 2;
+
+    private final String pythonInterpreter;
+    private final String pythonScript;
+    private final ObjectMapper objectMapper;
+    private final RenderWorker[] workers;
+    private final Map<String, Integer> documentAffinity = new HashMap<>();
+    private boolean closed = false;
+
+    RenderWorkerPool(int size, String pythonInterpreter, String pythonScript, ObjectMapper objectMapper) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Render worker pool needs at least one worker: " + size);
+        }
+        this.pythonInterpreter = pythonInterpreter;
+        this.pythonScript = pythonScript;
+        this.objectMapper = objectMapper;
+        this.workers = new RenderWorker[size];
+    }
+
+    synchronized RenderWorker acquire(String documentPath) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Render worker pool has been closed");
+        }
+
+        reapDeadWorkers();
+        int leastLoaded = findLeastLoadedSlot();
+        Integer preferred = documentAffinity.get(documentPath);
+
+        int slot = leastLoaded;
+        if (preferred == null) {
+            documentAffinity.put(documentPath, leastLoaded);
+        } else if (loadOf(preferred) <= loadOf(leastLoaded) + AFFINITY_SLACK) {
+            slot = preferred;
+        }
+
+        return workerAt(slot);
+    }
+
+    private void reapDeadWorkers() {
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] != null && !workers[i].isAlive()) {
+                System.err.println("Render worker " + i + " died, it will be restarted on demand");
+                workers[i].close();
+                workers[i] = null;
+                // Its document cache is gone with it
+                final int slot = i;
+                documentAffinity.values().removeIf(s -> s == slot);
+            }
+        }
+    }
+
+    private int findLeastLoadedSlot() {
+        int bestSlot = -1;
+        int bestLoad = Integer.MAX_VALUE;
+        int firstEmptySlot = -1;
+
+        for (int i = 0; i < workers.length; i++) {
+            if (!isRunning(i)) {
+                if (firstEmptySlot < 0) {
+                    firstEmptySlot = i;
+                }
+                continue;
+            }
+            int load = workers[i].getPendingCount();
+            if (load < bestLoad) {
+                bestLoad = load;
+                bestSlot = i;
+            }
+        }
+
+        // Only grow the pool when every running worker already has work queued
+        if (firstEmptySlot >= 0 && (bestSlot < 0 || bestLoad > 0)) {
+            return firstEmptySlot;
+        }
+        return bestSlot;
+    }
+
+    private int loadOf(int slot) {
+        return isRunning(slot) ? workers[slot].getPendingCount() : 0;
+    }
+
+    private boolean isRunning(int slot) {
+        return workers[slot] != null && workers[slot].isAlive();
+    }
+
+    private RenderWorker workerAt(int slot) throws IOException {
+        if (workers[slot] == null) {
+            workers[slot] = new RenderWorker(pythonInterpreter, pythonScript, objectMapper);
+        }
+        return workers[slot];
+    }
+
+    int size() {
+        return workers.length;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] != null) {
+                workers[i].close();
+                workers[i] = null;
+            }
+        }
+        documentAffinity.clear();
+    }
+}
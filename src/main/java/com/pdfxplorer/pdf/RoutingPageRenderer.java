@@ -0,0 +1,164 @@
+package com.pdfxplorer.pdf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the render engine per document: PDFBox inside the JVM or the
+ * MuPDF workers. The Python workers are only started once a document needs
+ * them, so a session of simple documents never launches Python. A document
+ * keeps the engine it was first given unless it is changed with setEngine().
+ */
+public class RoutingPageRenderer implements PageRenderer {
+    // Default engine: "pdfbox", "mupdf" or "auto"
+    public static final String ENGINE_PROPERTY = "pdfxplorer.render.engine";
+
+    // In auto mode, files up to this size render in-process; heavier ones go to MuPDF
+    private static final long SIMPLE_DOCUMENT_BYTES = 8L * 1024 * 1024;
+
+    public enum Engine {
+        AUTO, PDFBOX, MUPDF
+    }
+
+    private final Engine defaultEngine;
+    private final PdfBoxPageRenderer pdfBox;
+    // Started on first use; guarded by this
+    private PythonPdfRenderer mupdf;
+    private boolean mupdfUnavailable = false;
+    // Resolved engine of each document, never AUTO
+    private final Map<String, Engine> engines = new ConcurrentHashMap<>();
+
+    public RoutingPageRenderer() {
+        this(parseEngine(System.getProperty(ENGINE_PROPERTY, "auto")));
+    }
+
+    public RoutingPageRenderer(Engine defaultEngine) {
+        this.defaultEngine = defaultEngine;
+        this.pdfBox = new PdfBoxPageRenderer();
+    }
+
+    private static Engine parseEngine(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "pdfbox":
+                return Engine.PDFBOX;
+            case "mupdf":
+            case "python":
+                return Engine.MUPDF;
+            case "auto":
+                return Engine.AUTO;
+            default:
+                System.err.println("Unknown render engine '" + name + "', using auto");
+                return Engine.AUTO;
+        }
+    }
+
+    /**
+     * Renders a document with the given engine from now on; AUTO goes back to the default choice.
+     */
+    public void setEngine(String pdfPath, Engine engine) {
+        if (engine == Engine.AUTO) {
+            engines.remove(pdfPath);
+        } else {
+            engines.put(pdfPath, engine);
+        }
+    }
+
+    /**
+     * The engine a document renders with, chosen on first use.
+     */
+    public Engine getEngine(String pdfPath) {
+        return engines.computeIfAbsent(pdfPath, this::chooseEngine);
+    }
+
+    private Engine chooseEngine(String pdfPath) {
+        Engine engine = defaultEngine;
+        if (engine == Engine.AUTO) {
+            engine = new File(pdfPath).length() <= SIMPLE_DOCUMENT_BYTES ? Engine.PDFBOX : Engine.MUPDF;
+        }
+        if (engine == Engine.MUPDF && mupdf() == null) {
+            engine = Engine.PDFBOX;
+        }
+        System.out.println("Rendering " + new File(pdfPath).getName() + " with " + engine);
+        return engine;
+    }
+
+    private synchronized PythonPdfRenderer mupdf() {
+        if (mupdf == null && !mupdfUnavailable) {
+            try {
+                mupdf = new PythonPdfRenderer();
+            } catch (RuntimeException e) {
+                // No Python or no renderer script; PDFBox renders everything
+                System.err.println("MuPDF renderer unavailable, using PDFBox: " + e.getMessage());
+                mupdfUnavailable = true;
+            }
+        }
+        return mupdf;
+    }
+
+    /**
+     * The renderer behind an engine, for benchmarks; MUPDF may start the Python workers.
+     */
+    public PageRenderer getRenderer(Engine engine) {
+        if (engine == Engine.MUPDF) {
+            PythonPdfRenderer renderer = mupdf();
+            if (renderer != null) {
+                return renderer;
+            }
+        }
+        return pdfBox;
+    }
+
+    private PageRenderer rendererFor(String pdfPath) {
+        return getRenderer(getEngine(pdfPath));
+    }
+
+    @Override
+    public CompletableFuture<Image> renderPage(String pdfPath, int pageNumber, double zoom, int rotation,
+            Rectangle2D clip) {
+        return rendererFor(pdfPath).renderPage(pdfPath, pageNumber, zoom, rotation, clip);
+    }
+
+    /**
+     * Document info from the document's engine. A document MuPDF cannot
+     * open, for instance because PyMuPDF is missing, moves to PDFBox.
+     */
+    @Override
+    public CompletableFuture<JsonNode> getDocumentInfo(String pdfPath) {
+        if (getEngine(pdfPath) != Engine.MUPDF) {
+            return pdfBox.getDocumentInfo(pdfPath);
+        }
+        return rendererFor(pdfPath).getDocumentInfo(pdfPath)
+                .exceptionallyCompose(e -> {
+                    if (RenderScheduler.isCancellation(e)) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    System.err.println("MuPDF failed on " + new File(pdfPath).getName() + ", using PDFBox: "
+                            + e.getMessage());
+                    engines.put(pdfPath, Engine.PDFBOX);
+                    return pdfBox.getDocumentInfo(pdfPath);
+                });
+    }
+
+    @Override
+    public int getWorkerCount() {
+        // Both engines size themselves from the same worker count property
+        return pdfBox.getWorkerCount();
+    }
+
+    @Override
+    public void close() {
+        pdfBox.close();
+        synchronized (this) {
+            if (mupdf != null) {
+                mupdf.close();
+            }
+        }
+    }
+}
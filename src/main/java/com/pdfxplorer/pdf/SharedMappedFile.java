@@ -0,0 +1,162 @@
+package com.pdfxplorer.pdf;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A PDF file mapped into memory once, read by any number of independent
+ * RandomAccessReads. Each reader keeps only its own position and reads the
+ * shared mapping with absolute gets, so documents parsed from the same file
+ * share its bytes through the page cache instead of copying them onto the
+ * heap. The file is mapped in 1 GB chunks, so it may exceed 2 GB.
+ */
+public final class SharedMappedFile implements Closeable {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private final File file;
+    private final long length;
+    private volatile ByteBuffer[] chunks;
+
+    private SharedMappedFile(File file, long length, ByteBuffer[] chunks) {
+        this.file = file;
+        this.length = length;
+        this.chunks = chunks;
+    }
+
+    public static SharedMappedFile map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+            // The mapping stays valid after the channel is closed
+            return new SharedMappedFile(file, length, chunks);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * A reader over the whole file with its own position.
+     */
+    public RandomAccessRead newReader() throws IOException {
+        if (chunks == null) {
+            throw new IOException(file.getName() + " is no longer mapped");
+        }
+        return new Reader();
+    }
+
+    /**
+     * Drops the mapping; the memory is unmapped once the readers still
+     * holding it are collected.
+     */
+    @Override
+    public void close() {
+        chunks = null;
+    }
+
+    private final class Reader implements RandomAccessRead {
+        // Held by the reader so a closed SharedMappedFile does not pull the bytes from under it
+        private ByteBuffer[] buffers = chunks;
+        private long position = 0;
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            if (position >= length) {
+                return -1;
+            }
+            int value = buffers[(int) (position >>> CHUNK_BITS)].get((int) (position & (CHUNK_SIZE - 1))) & 0xFF;
+            position++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) throws IOException {
+            checkClosed();
+            if (position >= length) {
+                return -1;
+            }
+            int total = (int) Math.min(count, length - position);
+            int done = 0;
+            while (done < total) {
+                ByteBuffer chunk = buffers[(int) (position >>> CHUNK_BITS)];
+                int chunkOffset = (int) (position & (CHUNK_SIZE - 1));
+                int step = Math.min(total - done, chunk.limit() - chunkOffset);
+                // Absolute bulk get: the shared buffer's own position is never touched
+                chunk.get(chunkOffset, bytes, offset + done, step);
+                done += step;
+                position += step;
+            }
+            return total;
+        }
+
+        @Override
+        public long getPosition() throws IOException {
+            checkClosed();
+            return position;
+        }
+
+        @Override
+        public void seek(long newPosition) throws IOException {
+            checkClosed();
+            if (newPosition < 0) {
+                throw new IOException("Invalid position " + newPosition);
+            }
+            position = Math.min(newPosition, length);
+        }
+
+        @Override
+        public long length() throws IOException {
+            checkClosed();
+            return length;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return buffers == null;
+        }
+
+        @Override
+        public boolean isEOF() throws IOException {
+            checkClosed();
+            return position >= length;
+        }
+
+        @Override
+        public RandomAccessReadView createView(long startPosition, long streamLength) throws IOException {
+            checkClosed();
+            // Views get a reader of their own, so reading one never moves this one
+            Reader reader = new Reader();
+            reader.buffers = buffers;
+            return new RandomAccessReadView(reader, startPosition, streamLength, true);
+        }
+
+        @Override
+        public void close() {
+            buffers = null;
+        }
+
+        private void checkClosed() throws IOException {
+            if (buffers == null) {
+                throw new IOException(file.getName() + " reader is closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.pdfxplorer.search;
+
+import com.pdfxplorer.pdf.DocumentHandlePool;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * The extracted text of a document with the position of every glyph, built
+ * in one text extraction pass so searches never touch the PDF again.
+ * Glyph data is kept in primitive arrays: per page, glyph g covers the
+ * characters [charStart[g], charEnd[g]) of the page text and its box is
+ * boxes[4g..4g+3] (x, y, width, height in points, top-left origin).
+ * Word and line separators appear in the text but have no glyph; words
+ * and lines are also kept as glyph and word ranges. Pages are immutable and
+ * shared by search, selection and highlighting.
+ * Large files are extracted in page shards in parallel, one PDDocument per
+ * shard since PDFBox documents are not thread-safe.
+ */
+public class DocumentTextIndex {
+    /**
+     * Receives pages as they are extracted; returning false stops the build.
+     */
+    public interface PageListener {
+        boolean pageIndexed(int pageIndex, PageText page);
+    }
+
+    public static final class PageText {
+        private final String text;
+        private final int[] charStart;
+        private final int[] charEnd;
+        private final float[] boxes;
+        // Glyph range of each word, and first word of each line with an end sentinel
+        private final int[] wordStarts;
+        private final int[] wordEnds;
+        private final int[] lineStarts;
+
+        PageText(String text, int[] charStart, int[] charEnd, float[] boxes) {
+            this.text = text;
+            this.charStart = charStart;
+            this.charEnd = charEnd;
+            this.boxes = boxes;
+
+            // Words are runs of non-blank glyphs; separators and blank glyphs both end them
+            int[] starts = new int[charStart.length];
+            int[] ends = new int[charStart.length];
+            int[] lines = new int[charStart.length + 1];
+            int wordCount = 0;
+            int lineCount = 0;
+            boolean inWord = false;
+            boolean newLine = true;
+            for (int g = 0; g < charStart.length; g++) {
+                boolean gap = false;
+                for (int c = g == 0 ? 0 : charEnd[g - 1]; c < charStart[g]; c++) {
+                    newLine |= text.charAt(c) == '\n';
+                    gap |= Character.isWhitespace(text.charAt(c));
+                }
+                boolean blank = true;
+                for (int c = charStart[g]; c < charEnd[g] && blank; c++) {
+                    blank = Character.isWhitespace(text.charAt(c));
+                }
+                if (inWord && (gap || newLine || blank)) {
+                    ends[wordCount - 1] = g;
+                    inWord = false;
+                }
+                if (!blank && !inWord) {
+                    if (newLine) {
+                        lines[lineCount++] = wordCount;
+                        newLine = false;
+                    }
+                    starts[wordCount++] = g;
+                    inWord = true;
+                }
+            }
+            if (inWord) {
+                ends[wordCount - 1] = charStart.length;
+            }
+            lines[lineCount] = wordCount;
+            this.wordStarts = Arrays.copyOf(starts, wordCount);
+            this.wordEnds = Arrays.copyOf(ends, wordCount);
+            this.lineStarts = Arrays.copyOf(lines, lineCount + 1);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getGlyphCount() {
+            return charStart.length;
+        }
+
+        /**
+         * Index of the first glyph ending after the given character offset.
+         */
+        public int glyphAtOrAfter(int charOffset) {
+            // charEnd is ascending, so the first glyph past the offset is a binary search away
+            int low = 0;
+            int high = charEnd.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (charEnd[mid] <= charOffset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Boxes of the glyphs covering the characters [start, end), four floats per glyph.
+         */
+        public float[] glyphBoxes(int start, int end) {
+            int first = glyphAtOrAfter(start);
+            int last = first;
+            while (last < charStart.length && charStart[last] < end) {
+                last++;
+            }
+            return Arrays.copyOfRange(boxes, first * 4, last * 4);
+        }
+
+        public int getCharStart(int glyph) {
+            return charStart[glyph];
+        }
+
+        public int getCharEnd(int glyph) {
+            return charEnd[glyph];
+        }
+
+        public float getX(int glyph) {
+            return boxes[glyph * 4];
+        }
+
+        public float getY(int glyph) {
+            return boxes[glyph * 4 + 1];
+        }
+
+        public float getWidth(int glyph) {
+            return boxes[glyph * 4 + 2];
+        }
+
+        public float getHeight(int glyph) {
+            return boxes[glyph * 4 + 3];
+        }
+
+        public int getWordCount() {
+            return wordStarts.length;
+        }
+
+        /**
+         * First glyph of a word.
+         */
+        public int getWordStart(int word) {
+            return wordStarts[word];
+        }
+
+        /**
+         * Glyph after the last one of a word.
+         */
+        public int getWordEnd(int word) {
+            return wordEnds[word];
+        }
+
+        public int getLineCount() {
+            return lineStarts.length - 1;
+        }
+
+        /**
+         * First word of a line; it ends where the next line starts.
+         */
+        public int getLineStart(int line) {
+            return lineStarts[line];
+        }
+
+        public int getLineEnd(int line) {
+            return lineStarts[line + 1];
+        }
+
+        /**
+         * Rough heap footprint, for caches with a memory budget.
+         */
+        public long estimatedBytes() {
+            return 64 + text.length() * 2L + (charStart.length + charEnd.length + boxes.length
+                    + wordStarts.length + wordEnds.length + lineStarts.length) * 4L;
+        }
+    }
+
+    // Below this many pages per shard, opening another document costs more than it saves
+    static final int MIN_PAGES_PER_SHARD = 16;
+
+    private static final PageText EMPTY_PAGE = new PageText("", new int[0], new int[0], new float[0]);
+
+    private final PageText[] pages;
+
+    private DocumentTextIndex(PageText[] pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * An index over pages extracted elsewhere; missing pages count as empty.
+     */
+    public static DocumentTextIndex of(PageText[] pages) {
+        return new DocumentTextIndex(pages.clone());
+    }
+
+    public static DocumentTextIndex build(PDDocument document) throws IOException {
+        PageText[] pages = new PageText[document.getNumberOfPages()];
+        extract(document, pages, 0, pages.length);
+        return new DocumentTextIndex(pages);
+    }
+
+    /**
+     * Builds the index one page at a time in page order, handing each page to
+     * the listener as soon as it is extracted. Returns null if the listener
+     * stopped the build, since the index would be incomplete.
+     */
+    public static DocumentTextIndex build(PDDocument document, PageListener listener) throws IOException {
+        PageText[] pages = new PageText[document.getNumberOfPages()];
+        IndexingStripper stripper = new IndexingStripper(pages, 0);
+        stripper.listener = listener;
+        stripper.writeText(document, Writer.nullWriter());
+        return stripper.stopped ? null : new DocumentTextIndex(pages);
+    }
+
+    /**
+     * Builds the index of a PDF file with page shards extracted in parallel on
+     * the given pool. Each shard leases its own handle on the document from
+     * the shared DocumentHandlePool; results land in page order regardless of
+     * which shard finishes first.
+     */
+    public static DocumentTextIndex build(File pdfFile, ForkJoinPool pool) throws IOException {
+        int pageCount;
+        try (DocumentHandlePool.Lease lease = DocumentHandlePool.getDefault().lease(pdfFile)) {
+            pageCount = lease.getDocument().getNumberOfPages();
+            if (shardCount(pageCount, pool.getParallelism()) <= 1) {
+                return build(lease.getDocument());
+            }
+        }
+
+        PageText[] pages = new PageText[pageCount];
+        extractMissing(pdfFile, pages, pool);
+        return new DocumentTextIndex(pages);
+    }
+
+    /**
+     * Extracts the pages still missing (null) from the array, in shards
+     * extracted in parallel on the given pool like build(File, ForkJoinPool).
+     */
+    public static void extractMissing(File pdfFile, PageText[] pages, ForkJoinPool pool) throws IOException {
+        extractMissing(pdfFile, pages, pool, DocumentHandlePool.getDefault());
+    }
+
+    static void extractMissing(File pdfFile, PageText[] pages, ForkJoinPool pool, DocumentHandlePool documents)
+            throws IOException {
+        int[] missing = IntStream.range(0, pages.length).filter(i -> pages[i] == null).toArray();
+        // More shards than handles would only wait for each other
+        int shards = Math.min(shardCount(missing.length, pool.getParallelism()), documents.getHandlesPerFile());
+        if (missing.length == 0) {
+            return;
+        }
+        if (shards <= 1) {
+            try (DocumentHandlePool.Lease lease = documents.lease(pdfFile)) {
+                extractRuns(lease.getDocument(), pages, missing, 0, missing.length);
+            }
+            return;
+        }
+
+        List<ForkJoinTask<Void>> tasks = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            int from = (int) ((long) missing.length * shard / shards);
+            int to = (int) ((long) missing.length * (shard + 1) / shards);
+            tasks.add(pool.submit(() -> {
+                try (DocumentHandlePool.Lease lease = documents.lease(pdfFile)) {
+                    extractRuns(lease.getDocument(), pages, missing, from, to);
+                }
+                return null;
+            }));
+        }
+
+        for (ForkJoinTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.forEach(other -> other.cancel(true));
+                throw new IOException("Text extraction was interrupted", e);
+            } catch (ExecutionException e) {
+                tasks.forEach(other -> other.cancel(true));
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                throw new IOException("Text extraction failed: " + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * Extracts the pages still missing (null) from the array out of an open document.
+     */
+    public static void extractMissing(PDDocument document, PageText[] pages) throws IOException {
+        int[] missing = IntStream.range(0, pages.length).filter(i -> pages[i] == null).toArray();
+        extractRuns(document, pages, missing, 0, missing.length);
+    }
+
+    private static void extractRuns(PDDocument document, PageText[] pages, int[] missing, int from, int to)
+            throws IOException {
+        // Consecutive pages go through one stripper pass
+        for (int i = from; i < to;) {
+            int end = i + 1;
+            while (end < to && missing[end] == missing[end - 1] + 1) {
+                end++;
+            }
+            extract(document, pages, missing[i], missing[end - 1] + 1);
+            i = end;
+        }
+    }
+
+    /**
+     * Extracts a single page, for callers that only need the page on screen.
+     */
+    public static PageText extractPage(PDDocument document, int pageIndex) throws IOException {
+        PageText[] page = new PageText[1];
+        IndexingStripper stripper = new IndexingStripper(page, pageIndex);
+        stripper.setStartPage(pageIndex + 1);
+        stripper.setEndPage(pageIndex + 1);
+        stripper.writeText(document, Writer.nullWriter());
+        return page[0] != null ? page[0] : EMPTY_PAGE;
+    }
+
+    static int shardCount(int pageCount, int parallelism) {
+        return Math.max(1, Math.min(parallelism, pageCount / MIN_PAGES_PER_SHARD));
+    }
+
+    private static void extract(PDDocument document, PageText[] pages, int firstPage, int endPage)
+            throws IOException {
+        IndexingStripper stripper = new IndexingStripper(pages, 0);
+        stripper.setStartPage(firstPage + 1);
+        stripper.setEndPage(endPage);
+        stripper.writeText(document, Writer.nullWriter());
+    }
+
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    public PageText getPage(int pageIndex) {
+        PageText page = pages[pageIndex];
+        return page != null ? page : EMPTY_PAGE;
+    }
+
+    /**
+     * Collects page text and glyph boxes instead of writing text out.
+     */
+    private static final class IndexingStripper extends PDFTextStripper {
+        // Page i of the document goes to pages[i - firstPage]
+        private final PageText[] pages;
+        private final int firstPage;
+        private final StringBuilder text = new StringBuilder();
+        private int[] charStart = new int[1024];
+        private int[] charEnd = new int[1024];
+        private float[] boxes = new float[4096];
+        private int glyphCount;
+        private PageListener listener;
+        private boolean stopped = false;
+
+        IndexingStripper(PageText[] pages, int firstPage) {
+            this.pages = pages;
+            this.firstPage = firstPage;
+        }
+
+        @Override
+        public void processPage(PDPage page) throws IOException {
+            // Once stopped, the remaining pages are skipped without being parsed
+            if (!stopped) {
+                super.processPage(page);
+            }
+        }
+
+        @Override
+        protected void startPage(PDPage page) {
+            text.setLength(0);
+            glyphCount = 0;
+        }
+
+        @Override
+        protected void writeString(String string, List<TextPosition> textPositions) {
+            for (TextPosition position : textPositions) {
+                String unicode = position.getUnicode();
+                if (unicode == null || unicode.isEmpty()) {
+                    continue;
+                }
+                if (glyphCount == charStart.length) {
+                    charStart = Arrays.copyOf(charStart, glyphCount * 2);
+                    charEnd = Arrays.copyOf(charEnd, glyphCount * 2);
+                    boxes = Arrays.copyOf(boxes, glyphCount * 8);
+                }
+                charStart[glyphCount] = text.length();
+                text.append(unicode);
+                charEnd[glyphCount] = text.length();
+
+                int box = glyphCount * 4;
+                boxes[box] = position.getXDirAdj();
+                boxes[box + 1] = position.getYDirAdj() - position.getHeightDir();
+                boxes[box + 2] = position.getWidthDirAdj();
+                boxes[box + 3] = position.getHeightDir();
+                glyphCount++;
+            }
+        }
+
+        @Override
+        protected void writeWordSeparator() {
+            text.append(' ');
+        }
+
+        @Override
+        protected void writeLineSeparator() {
+            text.append('\n');
+        }
+
+        @Override
+        protected void endPage(PDPage page) {
+            int pageIndex = getCurrentPageNo() - 1;
+            PageText pageText = new PageText(text.toString(),
+                    Arrays.copyOf(charStart, glyphCount),
+                    Arrays.copyOf(charEnd, glyphCount),
+                    Arrays.copyOf(boxes, glyphCount * 4));
+            pages[pageIndex - firstPage] = pageText;
+            if (listener != null && !listener.pageIndexed(pageIndex, pageText)) {
+                stopped = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package com.pdfxplorer.search;
+
+import com.pdfxplorer.service.PdfReaderService;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Library mode: a persistent inverted index over a folder of PDFs, mapping
+ * each term to the pages it occurs on and its word positions there. Every
+ * document's postings live in their own segment file, so an update only
+ * re-extracts files whose size or modification time changed. Loading merges
+ * the segments into one in-memory term dictionary that answers queries over
+ * all documents, with pages ranked by tf-idf.
+ */
+public class LibraryIndex {
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final String MANIFEST_FILE = "manifest.dat";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    public static final class PageHit {
+        private final Path document;
+        private final int pageIndex;
+        private final double score;
+
+        PageHit(Path document, int pageIndex, double score) {
+            this.document = document;
+            this.pageIndex = pageIndex;
+            this.score = score;
+        }
+
+        public Path getDocument() {
+            return document;
+        }
+
+        public int getPageIndex() {
+            return pageIndex;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return document.getFileName() + " p." + (pageIndex + 1) + String.format(" (%.2f)", score);
+        }
+    }
+
+    private static final class DocumentEntry {
+        private final int id;
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final int pageCount;
+
+        DocumentEntry(int id, String path, long size, long lastModified, int pageCount) {
+            this.id = id;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.pageCount = pageCount;
+        }
+
+        boolean isCurrent(File file) {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * One document's postings: term to entries of {page, position, position, ...}, in page order.
+     */
+    static final class Segment {
+        private final int pageCount;
+        private final Map<String, List<int[]>> terms;
+
+        Segment(int pageCount, Map<String, List<int[]>> terms) {
+            this.pageCount = pageCount;
+            this.terms = terms;
+        }
+
+        int getPageCount() {
+            return pageCount;
+        }
+
+        Map<String, List<int[]>> getTerms() {
+            return terms;
+        }
+    }
+
+    /**
+     * Postings of one term across the library, sorted by document then page.
+     */
+    private static final class Postings {
+        // Document id in the high half, page in the low half
+        private long[] keys = new long[4];
+        // Positions of entry i are positions[positionStarts[i]] up to positions[positionStarts[i + 1]]
+        private int[] positionStarts = new int[5];
+        private int[] positions = new int[8];
+        private int count;
+
+        void add(int documentId, int[] entry) {
+            if (count + 1 == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+                positionStarts = Arrays.copyOf(positionStarts, positionStarts.length * 2);
+            }
+            int start = positionStarts[count];
+            int length = entry.length - 1;
+            if (start + length > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(positions.length * 2, start + length));
+            }
+            System.arraycopy(entry, 1, positions, start, length);
+            keys[count] = ((long) documentId << 32) | entry[0];
+            positionStarts[++count] = start + length;
+        }
+
+        int find(long key) {
+            return Arrays.binarySearch(keys, 0, count, key);
+        }
+
+        int termFrequency(int entry) {
+            return positionStarts[entry + 1] - positionStarts[entry];
+        }
+
+        boolean hasPosition(int entry, int position) {
+            return Arrays.binarySearch(positions, positionStarts[entry], positionStarts[entry + 1], position) >= 0;
+        }
+    }
+
+    private final Path libraryDir;
+    private final Path storeDir;
+    private final ForkJoinPool pool;
+    private final Object updateLock = new Object();
+
+    // Guarded by this
+    private final Map<String, DocumentEntry> documents = new LinkedHashMap<>();
+    private final Map<Integer, DocumentEntry> documentsById = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final BitSet liveDocuments = new BitSet();
+    private long livePageCount = 0;
+    private int nextDocumentId = 0;
+
+    public LibraryIndex(Path libraryDir) {
+        this(libraryDir, Paths.get(System.getProperty("user.home"), ".pdfxplorer", "library",
+                storeKey(libraryDir)), Integer.getInteger(PDFSearchEngine.PARALLELISM_PROPERTY,
+                        Runtime.getRuntime().availableProcessors()));
+    }
+
+    public LibraryIndex(Path libraryDir, Path storeDir, int parallelism) {
+        this.libraryDir = libraryDir.toAbsolutePath();
+        this.storeDir = storeDir;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    private static String storeKey(Path libraryDir) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(
+                    libraryDir.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Reads the stored index. Documents whose segment is missing or unreadable
+     * are forgotten and picked up again by the next update().
+     */
+    public void load() throws IOException {
+        Path manifest = storeDir.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifest)) {
+            return;
+        }
+
+        List<DocumentEntry> stored = new ArrayList<>();
+        int storedNextId;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                System.out.println("Library index format changed, rebuilding " + libraryDir);
+                return;
+            }
+            storedNextId = input.readInt();
+            for (int i = input.readInt(); i > 0; i--) {
+                stored.add(new DocumentEntry(input.readInt(), input.readUTF(), input.readLong(), input.readLong(),
+                        input.readInt()));
+            }
+        }
+
+        // Segments are read in parallel but merged in id order to keep postings sorted
+        stored.sort(Comparator.comparingInt(entry -> entry.id));
+        List<ForkJoinTask<Segment>> reads = new ArrayList<>(stored.size());
+        for (DocumentEntry entry : stored) {
+            reads.add(pool.submit(() -> readSegment(segmentPath(entry.id))));
+        }
+
+        boolean dropped = false;
+        synchronized (this) {
+            nextDocumentId = Math.max(nextDocumentId, storedNextId);
+            for (int i = 0; i < stored.size(); i++) {
+                DocumentEntry entry = stored.get(i);
+                try {
+                    merge(entry, reads.get(i).get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Loading the library index was interrupted", e);
+                } catch (ExecutionException e) {
+                    System.err.println("Dropping unreadable index segment for " + entry.path + ": "
+                            + e.getCause().getMessage());
+                    dropped = true;
+                }
+            }
+        }
+        if (dropped) {
+            writeManifest();
+        }
+        System.out.println("Loaded library index of " + getDocumentCount() + " documents");
+    }
+
+    /**
+     * Brings the index in line with the folder: new and changed PDFs are
+     * extracted on all cores, deleted ones are dropped. Searches keep working
+     * on the previous state until the new documents are merged.
+     */
+    public int update() throws IOException {
+        synchronized (updateLock) {
+            List<File> files;
+            try (Stream<Path> walk = Files.walk(libraryDir)) {
+                files = walk.filter(Files::isRegularFile)
+                        .filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf"))
+                        .map(Path::toFile)
+                        .collect(Collectors.toList());
+            }
+
+            List<File> changed = new ArrayList<>();
+            List<Integer> ids = new ArrayList<>();
+            synchronized (this) {
+                Map<String, File> present = new HashMap<>();
+                for (File file : files) {
+                    present.put(file.getAbsolutePath(), file);
+                }
+                for (DocumentEntry entry : new ArrayList<>(documents.values())) {
+                    File file = present.get(entry.path);
+                    if (file == null || !entry.isCurrent(file)) {
+                        remove(entry);
+                    }
+                }
+                for (File file : files) {
+                    if (!documents.containsKey(file.getAbsolutePath())) {
+                        changed.add(file);
+                        ids.add(nextDocumentId++);
+                    }
+                }
+            }
+
+            long start = System.currentTimeMillis();
+            List<ForkJoinTask<Segment>> extractions = new ArrayList<>(changed.size());
+            for (int i = 0; i < changed.size(); i++) {
+                File file = changed.get(i);
+                int id = ids.get(i);
+                extractions.add(pool.submit(() -> {
+                    Segment segment = extractSegment(file);
+                    writeSegment(segmentPath(id), segment);
+                    return segment;
+                }));
+            }
+
+            int indexed = 0;
+            for (int i = 0; i < changed.size(); i++) {
+                File file = changed.get(i);
+                try {
+                    Segment segment = extractions.get(i).get();
+                    synchronized (this) {
+                        merge(new DocumentEntry(ids.get(i), file.getAbsolutePath(), file.length(),
+                                file.lastModified(), segment.pageCount), segment);
+                    }
+                    indexed++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Library indexing was interrupted", e);
+                } catch (ExecutionException e) {
+                    // Left out of the manifest, so the next update tries again
+                    System.err.println("Could not index " + file + ": " + e.getCause().getMessage());
+                }
+            }
+
+            writeManifest();
+            if (!changed.isEmpty()) {
+                System.out.println("Indexed " + indexed + " of " + changed.size() + " changed PDFs in "
+                        + (System.currentTimeMillis() - start) + " ms on " + pool.getParallelism() + " threads");
+            }
+            return indexed;
+        }
+    }
+
+    private void merge(DocumentEntry entry, Segment segment) {
+        for (Map.Entry<String, List<int[]>> term : segment.terms.entrySet()) {
+            Postings termPostings = postings.computeIfAbsent(term.getKey(), key -> new Postings());
+            for (int[] pageEntry : term.getValue()) {
+                termPostings.add(entry.id, pageEntry);
+            }
+        }
+        documents.put(entry.path, entry);
+        documentsById.put(entry.id, entry);
+        liveDocuments.set(entry.id);
+        livePageCount += entry.pageCount;
+        nextDocumentId = Math.max(nextDocumentId, entry.id + 1);
+    }
+
+    private void remove(DocumentEntry entry) {
+        // Postings stay until the next load; the live set hides them from queries
+        documents.remove(entry.path);
+        documentsById.remove(entry.id);
+        liveDocuments.clear(entry.id);
+        livePageCount -= entry.pageCount;
+        try {
+            Files.deleteIfExists(segmentPath(entry.id));
+        } catch (IOException e) {
+            System.err.println("Could not delete index segment for " + entry.path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pages containing every word of the query, best first. A query in double
+     * quotes only matches pages where the words appear as a phrase.
+     */
+    public synchronized List<PageHit> search(String query, int limit) {
+        String trimmed = query.trim();
+        boolean phrase = trimmed.length() > 1 && trimmed.startsWith("\"") && trimmed.endsWith("\"");
+        List<String> terms = new ArrayList<>();
+        tokenize(trimmed, (term, position) -> terms.add(term));
+        if (terms.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        Postings[] termPostings = new Postings[terms.size()];
+        double[] idf = new double[terms.size()];
+        int rarest = 0;
+        for (int t = 0; t < terms.size(); t++) {
+            termPostings[t] = postings.get(terms.get(t));
+            if (termPostings[t] == null) {
+                return new ArrayList<>(); // Every word must occur somewhere
+            }
+            idf[t] = Math.log(1.0 + (double) livePageCount / termPostings[t].count);
+            if (termPostings[t].count < termPostings[rarest].count) {
+                rarest = t;
+            }
+        }
+
+        // Walk the rarest term's pages and probe the others; keep the best hits in a min-heap
+        PriorityQueue<PageHit> best = new PriorityQueue<>(Comparator.comparingDouble(PageHit::getScore));
+        int[] entries = new int[terms.size()];
+        Postings driver = termPostings[rarest];
+        for (int i = 0; i < driver.count; i++) {
+            long key = driver.keys[i];
+            int documentId = (int) (key >>> 32);
+            if (!liveDocuments.get(documentId)) {
+                continue;
+            }
+
+            double score = 0;
+            boolean allFound = true;
+            for (int t = 0; t < terms.size() && allFound; t++) {
+                entries[t] = t == rarest ? i : termPostings[t].find(key);
+                if (entries[t] < 0) {
+                    allFound = false;
+                } else {
+                    score += termPostings[t].termFrequency(entries[t]) * idf[t];
+                }
+            }
+            if (!allFound || (phrase && !containsPhrase(termPostings, entries))) {
+                continue;
+            }
+
+            if (best.size() < limit) {
+                best.add(new PageHit(Paths.get(documentsById.get(documentId).path), (int) key, score));
+            } else if (score > best.peek().getScore()) {
+                best.poll();
+                best.add(new PageHit(Paths.get(documentsById.get(documentId).path), (int) key, score));
+            }
+        }
+
+        List<PageHit> hits = new ArrayList<>(best);
+        hits.sort(Comparator.comparingDouble(PageHit::getScore).reversed());
+        return hits;
+    }
+
+    private static boolean containsPhrase(Postings[] termPostings, int[] entries) {
+        Postings first = termPostings[0];
+        for (int p = first.positionStarts[entries[0]]; p < first.positionStarts[entries[0] + 1]; p++) {
+            int start = first.positions[p];
+            boolean matches = true;
+            for (int t = 1; t < termPostings.length && matches; t++) {
+                matches = termPostings[t].hasPosition(entries[t], start + t);
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getDocumentCount() {
+        return documents.size();
+    }
+
+    public Path getLibraryDir() {
+        return libraryDir;
+    }
+
+    private interface TokenSink {
+        void accept(String term, int position);
+    }
+
+    /**
+     * Splits text into case-folded words of letters and digits, numbering them in order.
+     */
+    private static void tokenize(String text, TokenSink sink) {
+        StringBuilder word = new StringBuilder();
+        int position = 0;
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            i += i < text.length() ? Character.charCount(codePoint) : 1;
+            if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(MultiPatternMatcher.fold(codePoint));
+            } else if (word.length() > 0) {
+                if (word.length() <= MAX_TERM_LENGTH) {
+                    sink.accept(word.toString(), position);
+                }
+                position++;
+                word.setLength(0);
+            }
+        }
+    }
+
+    private static Segment extractSegment(File file) throws IOException {
+        DocumentTextIndex text;
+        try (PDDocument document = PdfReaderService.loadDocument(file)) {
+            text = DocumentTextIndex.build(document);
+        }
+
+        Map<String, List<int[]>> terms = new HashMap<>();
+        Map<String, int[]> pagePositions = new HashMap<>();
+        for (int page = 0; page < text.getPageCount(); page++) {
+            // Per term: number of positions so far, then the positions
+            pagePositions.clear();
+            tokenize(text.getPage(page).getText(), (term, position) -> {
+                int[] positions = pagePositions.get(term);
+                if (positions == null) {
+                    positions = new int[4];
+                } else if (positions[0] + 1 == positions.length) {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                }
+                positions[++positions[0]] = position;
+                pagePositions.put(term, positions);
+            });
+            for (Map.Entry<String, int[]> term : pagePositions.entrySet()) {
+                int[] positions = term.getValue();
+                int[] entry = Arrays.copyOf(positions, positions[0] + 1);
+                entry[0] = page;
+                terms.computeIfAbsent(term.getKey(), key -> new ArrayList<>()).add(entry);
+            }
+        }
+        return new Segment(text.getPageCount(), terms);
+    }
+
+    private Path segmentPath(int documentId) {
+        return storeDir.resolve("segments").resolve(documentId + SEGMENT_SUFFIX);
+    }
+
+    static void writeSegment(Path target, Segment segment) throws IOException {
+        writeAtomically(target, output -> {
+            output.writeInt(FORMAT_VERSION);
+            writeVarInt(output, segment.pageCount);
+            writeVarInt(output, segment.terms.size());
+            for (Map.Entry<String, List<int[]>> term : segment.terms.entrySet()) {
+                output.writeUTF(term.getKey());
+                writeVarInt(output, term.getValue().size());
+                for (int[] entry : term.getValue()) {
+                    writeVarInt(output, entry[0]);
+                    writeVarInt(output, entry.length - 1);
+                    // Positions ascend, so deltas keep the varints short
+                    int previous = 0;
+                    for (int i = 1; i < entry.length; i++) {
+                        writeVarInt(output, entry[i] - previous);
+                        previous = entry[i];
+                    }
+                }
+            }
+        });
+    }
+
+    static Segment readSegment(Path source) throws IOException {
+        try (InputStream stream = Files.newInputStream(source);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported segment format");
+            }
+            int pageCount = readVarInt(input);
+            int termCount = readVarInt(input);
+            Map<String, List<int[]>> terms = new HashMap<>(termCount * 2);
+            for (int t = 0; t < termCount; t++) {
+                String term = input.readUTF();
+                int entryCount = readVarInt(input);
+                List<int[]> entries = new ArrayList<>(entryCount);
+                for (int e = 0; e < entryCount; e++) {
+                    int page = readVarInt(input);
+                    int[] entry = new int[readVarInt(input) + 1];
+                    entry[0] = page;
+                    int previous = 0;
+                    for (int i = 1; i < entry.length; i++) {
+                        previous += readVarInt(input);
+                        entry[i] = previous;
+                    }
+                    entries.add(entry);
+                }
+                terms.put(term, entries);
+            }
+            return new Segment(pageCount, terms);
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        List<DocumentEntry> entries;
+        int nextId;
+        synchronized (this) {
+            entries = new ArrayList<>(documents.values());
+            nextId = nextDocumentId;
+        }
+        writeAtomically(storeDir.resolve(MANIFEST_FILE), output -> {
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(nextId);
+            output.writeInt(entries.size());
+            for (DocumentEntry entry : entries) {
+                output.writeInt(entry.id);
+                output.writeUTF(entry.path);
+                output.writeLong(entry.size);
+                output.writeLong(entry.lastModified);
+                output.writeInt(entry.pageCount);
+            }
+        });
+    }
+
+    private interface Writer {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private static void writeAtomically(Path target, Writer writer) throws IOException {
+        Files.createDirectories(target.getParent());
+        // Write to a temp file first so a crash never leaves a half-written file
+        Path temp = Files.createTempFile(target.getParent(), "index", ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temp);
+                    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+                writer.write(output);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeVarInt(DataOutput output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,193 @@
+package com.pdfxplorer.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton matching any number of literal terms in one pass
+ * over case-folded code points, linear in the text length whatever the
+ * number of terms. Text is fed one code point at a time through step(), so
+ * callers can keep their own mapping from code points back to glyphs.
+ * Transitions are stored as sorted int arrays; matching never allocates.
+ */
+public final class MultiPatternMatcher {
+    public static final int ROOT = 0;
+
+    /**
+     * Receives matches found by find(), as char offsets [start, end) of the text.
+     */
+    public interface MatchListener {
+        void onMatch(int pattern, int start, int end);
+    }
+
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final int[] patternLengths;
+    private final int maxPatternLength;
+    // Per state: sorted transition code points and their target states
+    private final int[][] edgeKeys;
+    private final int[][] edgeTargets;
+    private final int[] failure;
+    // Patterns ending in each state, including those reached through failure links
+    private final int[][] matches;
+
+    public MultiPatternMatcher(List<String> patterns) {
+        patternLengths = new int[patterns.size()];
+
+        // Build the trie with sorted maps first, then flatten it into arrays
+        List<TreeMap<Integer, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> outputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        outputs.add(new ArrayList<>());
+        int longest = 0;
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = ROOT;
+            int length = 0;
+            String pattern = patterns.get(p);
+            for (int i = 0; i < pattern.length(); ) {
+                int original = pattern.codePointAt(i);
+                i += Character.charCount(original);
+                int codePoint = fold(original);
+                Integer next = trie.get(state).get(codePoint);
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(codePoint, next);
+                    trie.add(new TreeMap<>());
+                    outputs.add(new ArrayList<>());
+                }
+                state = next;
+                length++;
+            }
+            if (length > 0) {
+                outputs.get(state).add(p);
+            }
+            patternLengths[p] = length;
+            longest = Math.max(longest, length);
+        }
+        maxPatternLength = longest;
+
+        int stateCount = trie.size();
+        edgeKeys = new int[stateCount][];
+        edgeTargets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            TreeMap<Integer, Integer> edges = trie.get(state);
+            edgeKeys[state] = edges.keySet().stream().mapToInt(Integer::intValue).toArray();
+            edgeTargets[state] = edges.values().stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Breadth-first so every failure target is complete before it is used
+        failure = new int[stateCount];
+        matches = new int[stateCount][];
+        matches[ROOT] = NO_MATCHES;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[ROOT]) {
+            failure[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            matches[state] = merge(outputs.get(state), matches[failure[state]]);
+            for (int e = 0; e < edgeKeys[state].length; e++) {
+                int child = edgeTargets[state][e];
+                int fallback = failure[state];
+                while (fallback != ROOT && transition(fallback, edgeKeys[state][e]) < 0) {
+                    fallback = failure[fallback];
+                }
+                int target = transition(fallback, edgeKeys[state][e]);
+                failure[child] = target >= 0 && target != child ? target : ROOT;
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int[] merge(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+        for (int i = 0; i < own.size(); i++) {
+            merged[inherited.length + i] = own.get(i);
+        }
+        return merged;
+    }
+
+    /**
+     * Case folding applied to both terms and text.
+     */
+    public static int fold(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
+    }
+
+    private int transition(int state, int foldedCodePoint) {
+        int index = Arrays.binarySearch(edgeKeys[state], foldedCodePoint);
+        return index >= 0 ? edgeTargets[state][index] : -1;
+    }
+
+    /**
+     * Advances the automaton by one code point of text.
+     */
+    public int step(int state, int codePoint) {
+        int folded = fold(codePoint);
+        while (true) {
+            int next = transition(state, folded);
+            if (next >= 0) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * Patterns ending at the code point that led to this state. The array is
+     * shared and must not be modified.
+     */
+    public int[] matchesAt(int state) {
+        return matches[state];
+    }
+
+    /**
+     * Pattern length in code points.
+     */
+    public int getPatternLength(int pattern) {
+        return patternLengths[pattern];
+    }
+
+    public int getMaxPatternLength() {
+        return maxPatternLength;
+    }
+
+    public int getPatternCount() {
+        return patternLengths.length;
+    }
+
+    /**
+     * Reports every occurrence of every pattern in the text, overlapping ones included.
+     */
+    public void find(CharSequence text, MatchListener listener) {
+        if (maxPatternLength == 0) {
+            return;
+        }
+        // Char offsets of the most recent code points, to find where a match began
+        int[] offsets = new int[maxPatternLength];
+        int state = ROOT;
+        int count = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = Character.codePointAt(text, i);
+            offsets[count % maxPatternLength] = i;
+            count++;
+            i += Character.charCount(codePoint);
+            state = step(state, codePoint);
+            for (int pattern : matches[state]) {
+                int start = offsets[(count - patternLengths[pattern]) % maxPatternLength];
+                listener.onMatch(pattern, start, i);
+            }
+        }
+    }
+}
@@ -1,42 +1,93 @@
 package com.pdfxplorer.search;
 
+import com.pdfxplorer.text.TextLayerService;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.pdfbox.text.TextPosition;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class PDFSearchEngine {
+/**
+ * Searches the text index of documents, extracting and searching page
+ * shards on a pool of its own. Close the engine to shut the pool down.
+ */
+public class PDFSearchEngine implements AutoCloseable {
+    // Threads used to extract and search page shards (defaults to the core count)
+    public static final String PARALLELISM_PROPERTY = "pdfxplorer.search.parallelism";
+
+    // Compiled patterns of recent queries, so refining or repeating a search skips compilation
+    private static final int MAX_CACHED_PATTERNS = 32;
+
     public static class SearchOptions {
         private final String query;
         private final boolean caseSensitive;
         private final boolean wholeWord;
+        private final boolean regex;
 
         public SearchOptions(String query, boolean caseSensitive, boolean wholeWord) {
+            this(query, caseSensitive, wholeWord, false);
+        }
+
+        public SearchOptions(String query, boolean caseSensitive, boolean wholeWord, boolean regex) {
             this.query = query;
             this.caseSensitive = caseSensitive;
             this.wholeWord = wholeWord;
+            this.regex = regex;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public boolean isCaseSensitive() {
+            return caseSensitive;
+        }
+
+        public boolean isWholeWord() {
+            return wholeWord;
+        }
+
+        public boolean isRegex() {
+            return regex;
+        }
+
+        String cacheKey() {
+            return (caseSensitive ? "c" : "-") + (wholeWord ? "w" : "-") + (regex ? "r" : "-") + query;
         }
 
         public Pattern createSearchPattern() {
-            String regex = wholeWord ? "\\b" + Pattern.quote(query) + "\\b" : Pattern.quote(query);
-            return Pattern.compile(regex, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE);
+            String expression = regex ? "(?:" + query + ")" : Pattern.quote(query);
+            if (wholeWord) {
+                expression = "\\b" + expression + "\\b";
+            }
+            return Pattern.compile(expression, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE);
         }
     }
 
     public static class SearchResult {
         private final int pageIndex;
         private final String matchedText;
-        private final List<TextPosition> textPositions;
+        private final int startOffset;
+        private final int endOffset;
+        private final float[] glyphBoxes;
 
-        public SearchResult(int pageIndex, String matchedText, List<TextPosition> textPositions) {
+        public SearchResult(int pageIndex, String matchedText, int startOffset, int endOffset, float[] glyphBoxes) {
             this.pageIndex = pageIndex;
             this.matchedText = matchedText;
-            this.textPositions = textPositions;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.glyphBoxes = glyphBoxes;
         }
 
         public int getPageIndex() {
@@ -47,52 +98,222 @@ public class PDFSearchEngine {
             return matchedText;
         }
 
-        public List<TextPosition> getTextPositions() {
-            return textPositions;
+        /**
+         * Offset of the match in the page text of the document's text index.
+         */
+        public int getStartOffset() {
+            return startOffset;
+        }
+
+        public int getEndOffset() {
+            return endOffset;
+        }
+
+        public int getGlyphCount() {
+            return glyphBoxes.length / 4;
+        }
+
+        /**
+         * Boxes of the matched glyphs as x, y, width, height quadruples in
+         * points from the top-left corner of the page.
+         */
+        public float[] getGlyphBoxes() {
+            return glyphBoxes;
         }
     }
 
+    private final ForkJoinPool pool;
+    // Page text is shared with selection and highlighting, so each page is parsed once
+    private final TextLayerService textLayers;
+
+    private final Map<String, Pattern> patterns = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > MAX_CACHED_PATTERNS;
+        }
+    };
+
+    public PDFSearchEngine() {
+        this(Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public PDFSearchEngine(int parallelism) {
+        this(parallelism, TextLayerService.getDefault());
+    }
+
+    public PDFSearchEngine(int parallelism, TextLayerService textLayers) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.textLayers = textLayers;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Returns the document's text index, extracting the pages not seen yet.
+     */
+    public DocumentTextIndex getIndex(PDDocument document) throws IOException {
+        return textLayers.getIndex(document);
+    }
+
+    /**
+     * Returns the text index of a PDF file, extracting the pages not seen yet
+     * in parallel shards. An edited file gets a fresh index.
+     */
+    public DocumentTextIndex getIndex(File pdfFile) throws IOException {
+        return textLayers.getIndex(pdfFile, pool);
+    }
+
+    public void invalidate(PDDocument document) {
+        textLayers.invalidate(document);
+    }
+
     public List<SearchResult> search(PDDocument document, SearchOptions options) throws IOException {
-        List<SearchResult> results = new ArrayList<>();
+        return search(getIndex(document), options);
+    }
+
+    public List<SearchResult> search(File pdfFile, SearchOptions options) throws IOException {
+        return search(getIndex(pdfFile), options);
+    }
+
+    /**
+     * Streams matches to the consumer in page order as each page is searched,
+     * so the first hit arrives as soon as its page is reached. Pages not
+     * extracted yet are extracted one by one on the way and stay cached.
+     *
+     * The consumer is called on a search thread. Cancelling the returned
+     * future stops the search after the current page; it otherwise completes
+     * with the number of hits delivered, at most maxHits unless that is 0.
+     */
+    public CompletableFuture<Integer> searchAsync(File pdfFile, SearchOptions options, int maxHits,
+            Consumer<SearchResult> onResult) {
+        CompletableFuture<Integer> search = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try {
+                    search.complete(streamSearch(pdfFile, compile(options), maxHits, onResult, search));
+                } catch (Throwable e) {
+                    search.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile
+            search.cancel(false);
+        }
+        return search;
+    }
 
-        PDFTextStripper stripper = new PDFTextStripper() {
-            @Override
-            protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
-                Pattern pattern = options.createSearchPattern();
-                Matcher matcher = pattern.matcher(text);
-
-                while (matcher.find()) {
-                    int start = matcher.start();
-                    int end = matcher.end();
-
-                    // Get text positions for the matched text
-                    List<TextPosition> matchPositions = new ArrayList<>();
-                    int currentPos = 0;
-
-                    for (TextPosition pos : textPositions) {
-                        String charText = pos.getUnicode();
-                        if (currentPos >= start && currentPos < end) {
-                            matchPositions.add(pos);
-                        }
-                        currentPos += charText.length();
-                    }
-
-                    if (!matchPositions.isEmpty()) {
-                        results.add(new SearchResult(
-                                getCurrentPageNo() - 1,
-                                text.substring(start, end),
-                                matchPositions));
-                    }
+    private int streamSearch(File pdfFile, Pattern pattern, int maxHits, Consumer<SearchResult> onResult,
+            CompletableFuture<Integer> search) throws IOException {
+        int[] hits = { 0 };
+        List<SearchResult> pageResults = new ArrayList<>();
+        Matcher matcher = pattern.matcher("");
+        DocumentTextIndex.PageListener searchPage = (pageIndex, page) -> {
+            pageResults.clear();
+            searchPage(pageIndex, page, matcher, pageResults);
+            for (SearchResult result : pageResults) {
+                if (search.isDone()) {
+                    return false;
+                }
+                onResult.accept(result);
+                hits[0]++;
+                if (maxHits > 0 && hits[0] >= maxHits) {
+                    return false;
                 }
             }
+            return !search.isDone();
         };
 
-        for (int i = 0; i < document.getNumberOfPages(); i++) {
-            stripper.setStartPage(i + 1);
-            stripper.setEndPage(i + 1);
-            stripper.getText(document);
+        int pageCount = textLayers.getPageCount(pdfFile);
+        for (int i = 0; i < pageCount; i++) {
+            DocumentTextIndex.PageText page;
+            try {
+                page = textLayers.getPage(pdfFile, i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Search was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Text extraction failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            if (!searchPage.pageIndexed(i, page)) {
+                break;
+            }
+        }
+        return hits[0];
+    }
+
+    /**
+     * Compiles the query once and reuses it while it stays among the recent ones.
+     */
+    Pattern compile(SearchOptions options) {
+        String key = options.cacheKey();
+        synchronized (patterns) {
+            Pattern pattern = patterns.get(key);
+            if (pattern == null) {
+                pattern = options.createSearchPattern();
+                patterns.put(key, pattern);
+            }
+            return pattern;
+        }
+    }
+
+    public List<SearchResult> search(DocumentTextIndex index, SearchOptions options) {
+        Pattern pattern = compile(options);
+        int pageCount = index.getPageCount();
+        int shards = DocumentTextIndex.shardCount(pageCount, pool.getParallelism());
+        if (shards <= 1) {
+            return searchPages(index, pattern, 0, pageCount);
         }
 
+        // Shards are joined in order, so results stay in page order
+        List<ForkJoinTask<List<SearchResult>>> tasks = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            int firstPage = (int) ((long) pageCount * shard / shards);
+            int endPage = (int) ((long) pageCount * (shard + 1) / shards);
+            tasks.add(pool.submit(() -> searchPages(index, pattern, firstPage, endPage)));
+        }
+        List<SearchResult> results = new ArrayList<>();
+        for (ForkJoinTask<List<SearchResult>> task : tasks) {
+            results.addAll(task.join());
+        }
+        return results;
+    }
+
+    private static List<SearchResult> searchPages(DocumentTextIndex index, Pattern pattern, int firstPage,
+            int endPage) {
+        List<SearchResult> results = new ArrayList<>();
+        // One matcher per shard, reset for each page
+        Matcher matcher = pattern.matcher("");
+        for (int i = firstPage; i < endPage; i++) {
+            searchPage(i, index.getPage(i), matcher, results);
+        }
         return results;
     }
-}
\ No newline at end of file
+
+    private static void searchPage(int pageIndex, DocumentTextIndex.PageText page, Matcher matcher,
+            List<SearchResult> results) {
+        matcher.reset(page.getText());
+        while (matcher.find()) {
+            int start = matcher.start();
+            int end = matcher.end();
+            if (start == end) {
+                continue; // A regex that matches nothing has nothing to highlight
+            }
+
+            float[] glyphBoxes = page.glyphBoxes(start, end);
+            if (glyphBoxes.length > 0) {
+                results.add(new SearchResult(pageIndex, matcher.group(), start, end, glyphBoxes));
+            }
+        }
+    }
+
+    /**
+     * Shuts the pool down once the searches already running have finished.
+     * Asynchronous searches started afterwards come back cancelled.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,66 @@
+package com.pdfxplorer.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * Page access that asks the page tree for a page only when it is needed.
+ * The page count comes straight from the root's /Count, and PDPageTree.get()
+ * descends through the /Count of the nodes on a page's way, so opening a
+ * document of thousands of pages wraps none of them. Pages come from the
+ * document's own page tree, so they share its resource cache with the pages
+ * PDFRenderer draws. PDPageTree.iterator() instead collects every page of the
+ * document before returning the first.
+ *
+ * Like the PDDocument it reads, a LazyPageTree is not thread-safe.
+ */
+public final class LazyPageTree {
+    private final PDDocument document;
+    private final PDPageTree tree;
+    private final int count;
+    // Pages asked for so far, by page index
+    private final PDPage[] pages;
+
+    public LazyPageTree(PDDocument document) {
+        this.document = document;
+        this.tree = document.getPages();
+        this.count = tree.getCount();
+        this.pages = new PDPage[count];
+    }
+
+    public PDDocument getDocument() {
+        return document;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public PDPage get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Page " + index + " of " + count);
+        }
+        PDPage page = pages[index];
+        if (page == null) {
+            page = tree.get(index);
+            pages[index] = page;
+        }
+        return page;
+    }
+
+    /**
+     * Width and height in points of a page as displayed, with its own
+     * rotation applied.
+     */
+    public float[] getDisplaySize(int index) {
+        PDPage page = get(index);
+        PDRectangle cropBox = page.getCropBox();
+        boolean quarterTurn = page.getRotation() % 180 != 0;
+        return new float[] {
+                quarterTurn ? cropBox.getHeight() : cropBox.getWidth(),
+                quarterTurn ? cropBox.getWidth() : cropBox.getHeight()
+        };
+    }
+}
@@ -1,13 +1,89 @@
 package com.pdfxplorer.service;
 
+import com.pdfxplorer.pdf.SharedMappedFile;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
 import java.io.File;
 import java.io.IOException;
 
+/**
+ * Opens PDF files for PDFBox without reading them onto the heap. The file is
+ * memory-mapped, or read through a small buffer, and parsed lazily: only the
+ * cross-reference table and trailer are read up front, objects when they
+ * are first used. Stream data PDFBox has to buffer goes to the heap up to a
+ * budget and to scratch files beyond it, so a 1-2 GB scan opens within the
+ * default heap.
+ */
 public class PdfReaderService {
+    // Heap for buffered stream data in megabytes before it spills to scratch files; -1 keeps it all on the heap
+    public static final String STREAM_CACHE_PROPERTY = "pdfxplorer.documents.streamCacheMb";
+    // Directory for the scratch files; the system temp directory by default
+    public static final String SCRATCH_DIR_PROPERTY = "pdfxplorer.documents.scratchDir";
+    // How the file is read: "mmap" or "buffered"
+    public static final String SOURCE_PROPERTY = "pdfxplorer.documents.source";
 
     public static PDDocument loadDocument(File file) throws IOException {
-        return PDDocument.load(file);
+        return loadDocument(file, "");
     }
-}
\ No newline at end of file
+
+    public static PDDocument loadDocument(File file, String password) throws IOException {
+        return loadDocument(openSource(file), password);
+    }
+
+    /**
+     * Parses a document from the given source, which the document closes
+     * along with itself.
+     */
+    public static PDDocument loadDocument(RandomAccessRead source, String password) throws IOException {
+        try {
+            return Loader.loadPDF(source, password, null, null, streamCache());
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a document and its page tree for lazy, page by page access.
+     */
+    public static LazyPageTree loadPages(File file) throws IOException {
+        return new LazyPageTree(loadDocument(file));
+    }
+
+    /**
+     * A source over the file that reads it in place rather than into memory.
+     */
+    public static RandomAccessRead openSource(File file) throws IOException {
+        if ("buffered".equals(System.getProperty(SOURCE_PROPERTY))) {
+            return new RandomAccessReadBufferedFile(file);
+        }
+        // The reader keeps the mapping alive; it is released once the document is closed and collected
+        return SharedMappedFile.map(file).newReader();
+    }
+
+    public static MemoryUsageSetting getMemoryUsageSetting() {
+        long heapMb = Long.getLong(STREAM_CACHE_PROPERTY, 64L);
+        MemoryUsageSetting setting;
+        if (heapMb < 0) {
+            setting = MemoryUsageSetting.setupMainMemoryOnly();
+        } else if (heapMb == 0) {
+            setting = MemoryUsageSetting.setupTempFileOnly();
+        } else {
+            setting = MemoryUsageSetting.setupMixed(heapMb * 1024 * 1024);
+        }
+        String scratchDir = System.getProperty(SCRATCH_DIR_PROPERTY);
+        if (scratchDir != null) {
+            setting.setTempDir(new File(scratchDir));
+        }
+        return setting;
+    }
+
+    public static StreamCacheCreateFunction streamCache() {
+        return getMemoryUsageSetting().streamCache;
+    }
+}
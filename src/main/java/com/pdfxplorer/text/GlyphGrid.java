@@ -0,0 +1,334 @@
+package com.pdfxplorer.text;
+
+import com.pdfxplorer.search.DocumentTextIndex;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the glyph boxes of one page, so finding the glyphs under
+ * a selection rectangle only looks at the cells it covers instead of every
+ * glyph on the page. Boxes are x, y, width, height quadruples with a
+ * top-left origin, in points for page text. Cells are stored flat: the
+ * glyphs of cell c are cellGlyphs[cellStarts[c]] up to
+ * cellGlyphs[cellStarts[c + 1]]. Immutable once built; a Selection tracks
+ * what a changing rectangle covers.
+ */
+public final class GlyphGrid {
+    // Aim for a handful of glyphs per cell; more cells cost memory, fewer cost scanning
+    private static final int GLYPHS_PER_CELL = 8;
+    private static final int MAX_CELLS_PER_SIDE = 256;
+
+    private final DocumentTextIndex.PageText page;
+    private final float[] boxes;
+    private final int glyphCount;
+    private final float minX;
+    private final float minY;
+    private final float cellWidth;
+    private final float cellHeight;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStarts;
+    private final int[] cellGlyphs;
+
+    private GlyphGrid(DocumentTextIndex.PageText page, float[] boxes, float minX, float minY, float cellWidth, float cellHeight,
+            int columns, int rows, int[] cellStarts, int[] cellGlyphs) {
+        this.page = page;
+        this.boxes = boxes;
+        this.glyphCount = boxes.length / 4;
+        this.minX = minX;
+        this.minY = minY;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellStarts = cellStarts;
+        this.cellGlyphs = cellGlyphs;
+    }
+
+    public static GlyphGrid build(DocumentTextIndex.PageText page) {
+        return build(page, page.glyphBoxes(0, page.getText().length()));
+    }
+
+    /**
+     * Grid over arbitrary boxes, four floats each; textOf() is not available.
+     */
+    public static GlyphGrid build(float[] boxes) {
+        return build(null, boxes);
+    }
+
+    private static GlyphGrid build(DocumentTextIndex.PageText page, float[] boxes) {
+        int glyphCount = boxes.length / 4;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int g = 0; g < glyphCount; g++) {
+            minX = Math.min(minX, boxes[g * 4]);
+            minY = Math.min(minY, boxes[g * 4 + 1]);
+            maxX = Math.max(maxX, boxes[g * 4] + boxes[g * 4 + 2]);
+            maxY = Math.max(maxY, boxes[g * 4 + 1] + boxes[g * 4 + 3]);
+        }
+        if (glyphCount == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        int side = (int) Math.ceil(Math.sqrt((double) glyphCount / GLYPHS_PER_CELL));
+        int columns = Math.max(1, Math.min(MAX_CELLS_PER_SIDE, side));
+        int rows = columns;
+        float cellWidth = Math.max((maxX - minX) / columns, 1e-3f);
+        float cellHeight = Math.max((maxY - minY) / rows, 1e-3f);
+
+        // Cell range covered by each glyph: first column, last column, first row, last row
+        int[] ranges = new int[glyphCount * 4];
+        int[] cellStarts = new int[columns * rows + 1];
+        for (int g = 0; g < glyphCount; g++) {
+            int r = g * 4;
+            ranges[r] = clamp((int) ((boxes[r] - minX) / cellWidth), columns);
+            ranges[r + 1] = clamp((int) ((boxes[r] + boxes[r + 2] - minX) / cellWidth), columns);
+            ranges[r + 2] = clamp((int) ((boxes[r + 1] - minY) / cellHeight), rows);
+            ranges[r + 3] = clamp((int) ((boxes[r + 1] + boxes[r + 3] - minY) / cellHeight), rows);
+            for (int row = ranges[r + 2]; row <= ranges[r + 3]; row++) {
+                for (int column = ranges[r]; column <= ranges[r + 1]; column++) {
+                    cellStarts[row * columns + column + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+
+        int[] cursor = Arrays.copyOf(cellStarts, cellStarts.length);
+        int[] cellGlyphs = new int[cellStarts[cellStarts.length - 1]];
+        for (int g = 0; g < glyphCount; g++) {
+            int r = g * 4;
+            for (int row = ranges[r + 2]; row <= ranges[r + 3]; row++) {
+                for (int column = ranges[r]; column <= ranges[r + 1]; column++) {
+                    cellGlyphs[cursor[row * columns + column]++] = g;
+                }
+            }
+        }
+        return new GlyphGrid(page, boxes, minX, minY, cellWidth, cellHeight, columns, rows, cellStarts, cellGlyphs);
+    }
+
+    private static int clamp(int cell, int count) {
+        return Math.max(0, Math.min(count - 1, cell));
+    }
+
+    /**
+     * The page text behind the grid, or null for a grid over plain boxes.
+     */
+    public DocumentTextIndex.PageText getPage() {
+        return page;
+    }
+
+    public int getGlyphCount() {
+        return glyphCount;
+    }
+
+    public float getX(int glyph) {
+        return boxes[glyph * 4];
+    }
+
+    public float getY(int glyph) {
+        return boxes[glyph * 4 + 1];
+    }
+
+    public float getWidth(int glyph) {
+        return boxes[glyph * 4 + 2];
+    }
+
+    public float getHeight(int glyph) {
+        return boxes[glyph * 4 + 3];
+    }
+
+    private boolean intersects(int glyph, double left, double top, double right, double bottom) {
+        int b = glyph * 4;
+        return boxes[b] < right && boxes[b] + boxes[b + 2] > left
+                && boxes[b + 1] < bottom && boxes[b + 1] + boxes[b + 3] > top;
+    }
+
+    private int columnOf(double x) {
+        return clamp((int) ((x - minX) / cellWidth), columns);
+    }
+
+    private int rowOf(double y) {
+        return clamp((int) ((y - minY) / cellHeight), rows);
+    }
+
+    /**
+     * Glyphs whose box intersects the rectangle, in text order.
+     */
+    public int[] query(double x1, double y1, double x2, double y2) {
+        double left = Math.min(x1, x2);
+        double top = Math.min(y1, y2);
+        double right = Math.max(x1, x2);
+        double bottom = Math.max(y1, y2);
+        if (cellGlyphs.length == 0 || right < minX || bottom < minY
+                || left > minX + cellWidth * columns || top > minY + cellHeight * rows) {
+            return new int[0];
+        }
+
+        int firstColumn = columnOf(left);
+        int lastColumn = columnOf(right);
+        int firstRow = rowOf(top);
+        int lastRow = rowOf(bottom);
+
+        int[] found = new int[16];
+        int count = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    int g = cellGlyphs[i];
+                    if (!intersects(g, left, top, right, bottom)) {
+                        continue;
+                    }
+                    // A glyph spanning several cells is only reported from the first one the query shares with it
+                    int ownColumn = Math.max(firstColumn, columnOf(getX(g)));
+                    int ownRow = Math.max(firstRow, rowOf(getY(g)));
+                    if (ownColumn != column || ownRow != row) {
+                        continue;
+                    }
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = g;
+                }
+            }
+        }
+        int[] glyphs = Arrays.copyOf(found, count);
+        Arrays.sort(glyphs);
+        return glyphs;
+    }
+
+    /**
+     * Text of the given glyphs (in text order). Glyphs next to each other keep
+     * the separators between them; a gap becomes a line break if it crossed a
+     * line and a space otherwise.
+     */
+    public String textOf(int[] glyphs) {
+        if (page == null) {
+            throw new IllegalStateException("Grid has no page text");
+        }
+        String text = page.getText();
+        StringBuilder selected = new StringBuilder();
+        for (int i = 0; i < glyphs.length; i++) {
+            int g = glyphs[i];
+            if (i > 0) {
+                int previous = glyphs[i - 1];
+                int gapStart = page.getCharEnd(previous);
+                int gapEnd = page.getCharStart(g);
+                if (g == previous + 1) {
+                    selected.append(text, gapStart, gapEnd);
+                } else {
+                    selected.append(text.substring(gapStart, gapEnd).indexOf('\n') >= 0 ? '\n' : ' ');
+                }
+            }
+            selected.append(text, page.getCharStart(g), page.getCharEnd(g));
+        }
+        return selected.toString();
+    }
+
+    public Selection newSelection() {
+        return new Selection();
+    }
+
+    /**
+     * The glyphs under a rectangle that changes step by step, as while
+     * dragging. Each update only re-tests the cells where the old and new
+     * rectangles differ: a glyph in a cell lying inside both keeps its state.
+     */
+    public final class Selection {
+        private final boolean[] selected = new boolean[glyphCount];
+        private int selectedCount = 0;
+        private boolean empty = true;
+        private double left;
+        private double top;
+        private double right;
+        private double bottom;
+
+        private Selection() {
+        }
+
+        /**
+         * Moves the selection to a new rectangle; returns whether any glyph changed state.
+         */
+        public boolean update(double x1, double y1, double x2, double y2) {
+            double newLeft = Math.min(x1, x2);
+            double newTop = Math.min(y1, y2);
+            double newRight = Math.max(x1, x2);
+            double newBottom = Math.max(y1, y2);
+            if (glyphCount == 0) {
+                return false;
+            }
+
+            // Cells touched by either rectangle
+            double unionLeft = empty ? newLeft : Math.min(left, newLeft);
+            double unionTop = empty ? newTop : Math.min(top, newTop);
+            double unionRight = empty ? newRight : Math.max(right, newRight);
+            double unionBottom = empty ? newBottom : Math.max(bottom, newBottom);
+            // Cells strictly inside both rectangles cannot change
+            double keepLeft = empty ? 0 : Math.max(left, newLeft);
+            double keepTop = empty ? 0 : Math.max(top, newTop);
+            double keepRight = empty ? 0 : Math.min(right, newRight);
+            double keepBottom = empty ? 0 : Math.min(bottom, newBottom);
+
+            left = newLeft;
+            top = newTop;
+            right = newRight;
+            bottom = newBottom;
+            empty = false;
+
+            boolean changed = false;
+            for (int row = rowOf(unionTop); row <= rowOf(unionBottom); row++) {
+                double cellTop = minY + row * cellHeight;
+                boolean rowKept = cellTop > keepTop && cellTop + cellHeight < keepBottom;
+                for (int column = columnOf(unionLeft); column <= columnOf(unionRight); column++) {
+                    double cellLeft = minX + column * cellWidth;
+                    if (rowKept && cellLeft > keepLeft && cellLeft + cellWidth < keepRight) {
+                        continue;
+                    }
+                    int cell = row * columns + column;
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        int g = cellGlyphs[i];
+                        boolean inside = intersects(g, left, top, right, bottom);
+                        if (inside != selected[g]) {
+                            selected[g] = inside;
+                            selectedCount += inside ? 1 : -1;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            return changed;
+        }
+
+        public boolean isSelected(int glyph) {
+            return selected[glyph];
+        }
+
+        public int getSelectedCount() {
+            return selectedCount;
+        }
+
+        /**
+         * Selected glyphs in text order.
+         */
+        public int[] getSelectedGlyphs() {
+            int[] glyphs = new int[selectedCount];
+            int count = 0;
+            for (int g = 0; g < glyphCount && count < selectedCount; g++) {
+                if (selected[g]) {
+                    glyphs[count++] = g;
+                }
+            }
+            return glyphs;
+        }
+
+        public void clear() {
+            Arrays.fill(selected, false);
+            selectedCount = 0;
+            empty = true;
+        }
+    }
+}
@@ -1,15 +1,43 @@
 package com.pdfxplorer.text;
 
+import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Text;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
+/**
+ * Rectangle selection over the text nodes of a page. Node bounds are
+ * snapshotted into primitive arrays and a GlyphGrid when the nodes are
+ * handed over, so a drag never touches the scene graph: each step re-tests
+ * only the grid cells the rectangle moved across, and the selection is drawn
+ * as one Path however many nodes it covers.
+ */
 public class PDFTextSelector {
+    // Nodes whose tops are this close are on the same line
+    private static final double SAME_LINE_THRESHOLD = 5;
+
     private Rectangle selectionRect;
-    private List<Text> selectedTextNodes;
     private Point2D startPoint;
+    private final Path selectionPath;
+
+    // Snapshot of the page's text nodes
+    private List<Text> snapshotNodes;
+    private String[] texts = new String[0];
+    private GlyphGrid grid;
+    private GlyphGrid.Selection selection;
+    // Node indices in reading order, and the line each of those belongs to
+    private int[] readingOrder = new int[0];
+    private int[] lineOfOrder = new int[0];
 
     public static class TextBounds {
         private final double x;
@@ -48,14 +76,18 @@ public class PDFTextSelector {
     }
 
     public PDFTextSelector() {
-        selectedTextNodes = new ArrayList<>();
+        selectionPath = new Path();
+        selectionPath.getStyleClass().add("text-selection-highlight");
+        selectionPath.setFill(Color.DODGERBLUE.deriveColor(0, 1, 1, 0.35));
+        selectionPath.setStroke(null);
+        selectionPath.setMouseTransparent(true);
     }
 
     public void startSelection(Point2D point) {
         startPoint = point;
         selectionRect = new Rectangle(point.getX(), point.getY(), 0, 0);
         selectionRect.getStyleClass().add("text-selection");
-        selectedTextNodes.clear();
+        clearSelectedNodes();
     }
 
     public void updateSelection(Point2D currentPoint) {
@@ -70,6 +102,12 @@ public class PDFTextSelector {
         selectionRect.setY(height < 0 ? currentPoint.getY() : startPoint.getY());
         selectionRect.setWidth(Math.abs(width));
         selectionRect.setHeight(Math.abs(height));
+
+        // Cheap enough to run on every drag event once the nodes are snapshotted
+        if (selection != null && selection.update(selectionRect.getX(), selectionRect.getY(),
+                selectionRect.getX() + selectionRect.getWidth(), selectionRect.getY() + selectionRect.getHeight())) {
+            updateSelectionPath();
+        }
     }
 
     public void endSelection() {
@@ -80,39 +118,122 @@ public class PDFTextSelector {
         return selectionRect;
     }
 
+    /**
+     * The highlight of the selected nodes, a single node in the parent of the text nodes.
+     */
+    public Path getSelectionPath() {
+        return selectionPath;
+    }
+
+    /**
+     * Snapshots the bounds and text of the page's nodes. Call again when the
+     * nodes move or change; the current selection is dropped.
+     */
+    public void setTextNodes(List<Text> pageTextNodes) {
+        int count = pageTextNodes.size();
+        float[] boxes = new float[count * 4];
+        texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            Text node = pageTextNodes.get(i);
+            Bounds bounds = node.getBoundsInParent();
+            boxes[i * 4] = (float) bounds.getMinX();
+            boxes[i * 4 + 1] = (float) bounds.getMinY();
+            boxes[i * 4 + 2] = (float) bounds.getWidth();
+            boxes[i * 4 + 3] = (float) bounds.getHeight();
+            texts[i] = node.getText();
+        }
+        snapshotNodes = pageTextNodes;
+        grid = GlyphGrid.build(boxes);
+        selection = grid.newSelection();
+        computeReadingOrder();
+        updateSelectionPath();
+    }
+
+    private void computeReadingOrder() {
+        int count = texts.length;
+        Integer[] byTop = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            byTop[i] = i;
+        }
+        Arrays.sort(byTop, Comparator.comparingDouble(grid::getY));
+
+        // Group into lines top-down, then order each line left to right
+        readingOrder = new int[count];
+        lineOfOrder = new int[count];
+        int line = 0;
+        for (int start = 0; start < count; line++) {
+            float lineTop = grid.getY(byTop[start]);
+            int end = start + 1;
+            while (end < count && grid.getY(byTop[end]) - lineTop <= SAME_LINE_THRESHOLD) {
+                end++;
+            }
+            Arrays.sort(byTop, start, end, Comparator.comparingDouble(grid::getX));
+            for (int i = start; i < end; i++) {
+                readingOrder[i] = byTop[i];
+                lineOfOrder[i] = line;
+            }
+            start = end;
+        }
+    }
+
     public void updateSelectedNodes(List<Text> pageTextNodes) {
-        selectedTextNodes.clear();
+        if (pageTextNodes != snapshotNodes || texts.length != pageTextNodes.size()) {
+            setTextNodes(pageTextNodes);
+        }
         if (selectionRect == null)
             return;
 
-        for (Text textNode : pageTextNodes) {
-            if (textNode.getBoundsInParent().intersects(selectionRect.getBoundsInParent())) {
-                selectedTextNodes.add(textNode);
+        if (selection.update(selectionRect.getX(), selectionRect.getY(),
+                selectionRect.getX() + selectionRect.getWidth(), selectionRect.getY() + selectionRect.getHeight())) {
+            updateSelectionPath();
+        }
+    }
+
+    private void updateSelectionPath() {
+        // One rectangle per run of selected nodes on a line
+        List<PathElement> elements = new ArrayList<>();
+        int count = selection != null && selection.getSelectedCount() > 0 ? readingOrder.length : 0;
+        for (int i = 0; i < count;) {
+            if (!selection.isSelected(readingOrder[i])) {
+                i++;
+                continue;
+            }
+            double left = Double.MAX_VALUE;
+            double top = Double.MAX_VALUE;
+            double right = -Double.MAX_VALUE;
+            double bottom = -Double.MAX_VALUE;
+            int line = lineOfOrder[i];
+            while (i < count && lineOfOrder[i] == line && selection.isSelected(readingOrder[i])) {
+                int node = readingOrder[i++];
+                left = Math.min(left, grid.getX(node));
+                top = Math.min(top, grid.getY(node));
+                right = Math.max(right, grid.getX(node) + grid.getWidth(node));
+                bottom = Math.max(bottom, grid.getY(node) + grid.getHeight(node));
             }
+            elements.add(new MoveTo(left, top));
+            elements.add(new LineTo(right, top));
+            elements.add(new LineTo(right, bottom));
+            elements.add(new LineTo(left, bottom));
+            elements.add(new ClosePath());
         }
+        selectionPath.getElements().setAll(elements);
     }
 
     public String getSelectedText() {
         StringBuilder text = new StringBuilder();
-        double lastY = -1;
-
-        // Sort text nodes by position
-        selectedTextNodes.sort((a, b) -> {
-            double yDiff = a.getBoundsInParent().getMinY() - b.getBoundsInParent().getMinY();
-            if (Math.abs(yDiff) < 5) { // Same line threshold
-                return Double.compare(a.getBoundsInParent().getMinX(), b.getBoundsInParent().getMinX());
-            }
-            return Double.compare(a.getBoundsInParent().getMinY(), b.getBoundsInParent().getMinY());
-        });
+        if (selection == null)
+            return "";
 
         // Build text with proper line breaks
-        for (Text node : selectedTextNodes) {
-            double currentY = node.getBoundsInParent().getMinY();
-            if (lastY != -1 && Math.abs(currentY - lastY) > 5) {
+        int lastLine = -1;
+        for (int i = 0; i < readingOrder.length; i++) {
+            if (!selection.isSelected(readingOrder[i]))
+                continue;
+            if (lastLine != -1 && lineOfOrder[i] != lastLine) {
                 text.append("\n");
             }
-            text.append(node.getText());
-            lastY = currentY;
+            text.append(texts[readingOrder[i]]);
+            lastLine = lineOfOrder[i];
         }
 
         return text.toString();
@@ -120,22 +241,28 @@ public class PDFTextSelector {
 
     public List<TextBounds> getSelectedTextBounds() {
         List<TextBounds> bounds = new ArrayList<>();
-        for (Text node : selectedTextNodes) {
-            bounds.add(new TextBounds(
-                    node.getBoundsInParent().getMinX(),
-                    node.getBoundsInParent().getMinY(),
-                    node.getBoundsInParent().getWidth(),
-                    node.getBoundsInParent().getHeight(),
-                    node.getText()));
+        if (selection == null)
+            return bounds;
+
+        for (int node : selection.getSelectedGlyphs()) {
+            bounds.add(new TextBounds(grid.getX(node), grid.getY(node), grid.getWidth(node), grid.getHeight(node),
+                    texts[node]));
         }
         return bounds;
     }
 
+    private void clearSelectedNodes() {
+        if (selection != null) {
+            selection.clear();
+        }
+        selectionPath.getElements().clear();
+    }
+
     public void clearSelection() {
         if (selectionRect != null) {
             selectionRect = null;
         }
-        selectedTextNodes.clear();
+        clearSelectedNodes();
         startPoint = null;
     }
-}
\ No newline at end of file
+}
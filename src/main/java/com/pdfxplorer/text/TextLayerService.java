@@ -0,0 +1,408 @@
+package com.pdfxplorer.text;
+
+import com.pdfxplorer.pdf.DocumentHandlePool;
+import com.pdfxplorer.search.DocumentTextIndex;
+import com.pdfxplorer.search.DocumentTextIndex.PageText;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.Predicate;
+
+/**
+ * The one text extraction stage of the viewer. Each page is parsed once into
+ * an immutable PageText (text, glyph boxes, words and lines) and kept in a
+ * cache under a memory budget; search, selection and highlighting all read
+ * their text from here. Once a document opens, a background thread extracts
+ * its pages with visible pages first, and explicit requests jump the queue.
+ *
+ * Documents are either files, read through handles leased from the shared
+ * DocumentHandlePool, or PDDocuments owned by the caller, which are locked while a page is extracted since
+ * PDFBox documents are not thread-safe.
+ */
+public class TextLayerService implements AutoCloseable {
+    // Memory budget for cached page text in megabytes
+    public static final String CAPACITY_PROPERTY = "pdfxplorer.cache.textMb";
+
+    public enum Priority {
+        REQUESTED, VISIBLE, BACKGROUND
+    }
+
+    private static TextLayerService defaultService;
+
+    private static final class Request implements Comparable<Request> {
+        private final File file;
+        private final String documentKey;
+        private final int pageIndex;
+        private final Priority priority;
+        private final long sequence;
+
+        Request(File file, String documentKey, int pageIndex, Priority priority, long sequence) {
+            this.file = file;
+            this.documentKey = documentKey;
+            this.pageIndex = pageIndex;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final long capacityBytes;
+    // Files are read through leased handles, shared with rendering
+    private final DocumentHandlePool documents;
+    private long cachedBytes = 0;
+    // Guarded by itself
+    private final Map<String, PageText> cache = new LinkedHashMap<>(256, 0.75f, true);
+    // Futures of explicitly requested pages, completed by the background thread; guarded by cache
+    private final Map<String, CompletableFuture<PageText>> pending = new HashMap<>();
+    private final Map<String, Integer> pageCounts = new HashMap<>();
+    private final Map<PDDocument, String> documentIds = new WeakHashMap<>();
+    private int nextDocumentId = 0;
+
+    private final PriorityBlockingQueue<Request> queue = new PriorityBlockingQueue<>();
+    // The one queued request of each page key, so a page is never queued twice; guarded by queue
+    private final Map<String, Request> queued = new HashMap<>();
+    private long sequence = 0;
+    private final Thread worker;
+    private volatile boolean closed = false;
+
+    public TextLayerService() {
+        this(Long.getLong(CAPACITY_PROPERTY, 256L) * 1024 * 1024, DocumentHandlePool.getDefault());
+    }
+
+    public TextLayerService(long capacityBytes, DocumentHandlePool documents) {
+        this.capacityBytes = capacityBytes;
+        this.documents = documents;
+        worker = new Thread(this::runWorker, "text-layer");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * The service shared by everything that shows one set of documents.
+     */
+    public static synchronized TextLayerService getDefault() {
+        if (defaultService == null) {
+            defaultService = new TextLayerService();
+        }
+        return defaultService;
+    }
+
+    public static String documentKey(File pdfFile) {
+        // An edited file is a different document
+        return pdfFile.getAbsolutePath() + "|" + pdfFile.length() + "|" + pdfFile.lastModified();
+    }
+
+    private String documentKey(PDDocument document) {
+        synchronized (documentIds) {
+            return documentIds.computeIfAbsent(document, key -> "document:" + nextDocumentId++);
+        }
+    }
+
+    private static String pageKey(String documentKey, int pageIndex) {
+        return documentKey + "#" + pageIndex;
+    }
+
+    private PageText cached(String pageKey) {
+        synchronized (cache) {
+            return cache.get(pageKey);
+        }
+    }
+
+    private void store(String pageKey, PageText page) {
+        CompletableFuture<PageText> waiting;
+        synchronized (cache) {
+            PageText previous = cache.put(pageKey, page);
+            if (previous != null) {
+                cachedBytes -= previous.estimatedBytes();
+            }
+            cachedBytes += page.estimatedBytes();
+            Iterator<Map.Entry<String, PageText>> eldest = cache.entrySet().iterator();
+            while (cachedBytes > capacityBytes && eldest.hasNext()) {
+                Map.Entry<String, PageText> entry = eldest.next();
+                if (entry.getKey().equals(pageKey)) {
+                    break;
+                }
+                cachedBytes -= entry.getValue().estimatedBytes();
+                eldest.remove();
+            }
+            waiting = pending.remove(pageKey);
+        }
+        if (waiting != null) {
+            waiting.complete(page);
+        }
+    }
+
+    /**
+     * Queues every page of a newly opened document for background extraction.
+     * Background and visible-page work queued for other documents is dropped.
+     */
+    public void prefetchDocument(File pdfFile, int pageCount) {
+        String documentKey = documentKey(pdfFile);
+        synchronized (cache) {
+            pageCounts.put(documentKey, pageCount);
+        }
+        dequeueIf(request -> request.priority != Priority.REQUESTED && !request.documentKey.equals(documentKey));
+        for (int i = 0; i < pageCount; i++) {
+            enqueue(pdfFile, documentKey, i, Priority.BACKGROUND);
+        }
+    }
+
+    /**
+     * Moves a page ahead of the background work, typically because it came into view.
+     */
+    public void prefetchPage(File pdfFile, int pageIndex, Priority priority) {
+        enqueue(pdfFile, documentKey(pdfFile), pageIndex, priority);
+    }
+
+    /**
+     * Queues a page unless it is cached or already queued at the same or a
+     * more urgent priority. A less urgent request for it is replaced.
+     */
+    private void enqueue(File pdfFile, String documentKey, int pageIndex, Priority priority) {
+        String pageKey = pageKey(documentKey, pageIndex);
+        if (cached(pageKey) != null) {
+            return;
+        }
+        synchronized (queue) {
+            Request previous = queued.get(pageKey);
+            if (previous != null) {
+                if (previous.priority.compareTo(priority) <= 0) {
+                    return;
+                }
+                queue.remove(previous);
+            }
+            Request request = new Request(pdfFile, documentKey, pageIndex, priority, sequence++);
+            queued.put(pageKey, request);
+            queue.add(request);
+        }
+    }
+
+    private void dequeueIf(Predicate<Request> filter) {
+        synchronized (queue) {
+            queue.removeIf(filter);
+            queued.values().removeIf(filter);
+        }
+    }
+
+    /**
+     * A page of a file, extracted by the background thread ahead of
+     * everything else unless it is already cached.
+     */
+    public CompletableFuture<PageText> getPage(File pdfFile, int pageIndex) {
+        String documentKey = documentKey(pdfFile);
+        String pageKey = pageKey(documentKey, pageIndex);
+        CompletableFuture<PageText> future;
+        synchronized (cache) {
+            PageText page = cache.get(pageKey);
+            if (page != null) {
+                return CompletableFuture.completedFuture(page);
+            }
+            future = pending.get(pageKey);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pending.put(pageKey, future);
+        }
+        enqueue(pdfFile, documentKey, pageIndex, Priority.REQUESTED);
+        return future;
+    }
+
+    /**
+     * A page of a document the caller has open, extracted on the calling
+     * thread if it is not cached yet.
+     */
+    public PageText getPage(PDDocument document, int pageIndex) throws IOException {
+        String pageKey = pageKey(documentKey(document), pageIndex);
+        PageText page = cached(pageKey);
+        if (page == null) {
+            synchronized (document) {
+                page = DocumentTextIndex.extractPage(document, pageIndex);
+            }
+            store(pageKey, page);
+        }
+        return page;
+    }
+
+    public int getPageCount(File pdfFile) throws IOException {
+        String documentKey = documentKey(pdfFile);
+        synchronized (cache) {
+            Integer count = pageCounts.get(documentKey);
+            if (count != null) {
+                return count;
+            }
+        }
+        int count;
+        try (DocumentHandlePool.Lease lease = documents.lease(pdfFile)) {
+            count = lease.getDocument().getNumberOfPages();
+        }
+        synchronized (cache) {
+            pageCounts.put(documentKey, count);
+        }
+        return count;
+    }
+
+    /**
+     * The whole text of a file, extracting the pages not cached yet in
+     * parallel shards on the given pool.
+     */
+    public DocumentTextIndex getIndex(File pdfFile, ForkJoinPool pool) throws IOException {
+        String documentKey = documentKey(pdfFile);
+        PageText[] pages = new PageText[getPageCount(pdfFile)];
+        boolean[] wasCached = collect(documentKey, pages);
+        DocumentTextIndex.extractMissing(pdfFile, pages, pool);
+        storeExtracted(documentKey, pages, wasCached);
+        return DocumentTextIndex.of(pages);
+    }
+
+    /**
+     * The whole text of an open document, extracting the pages not cached yet.
+     */
+    public DocumentTextIndex getIndex(PDDocument document) throws IOException {
+        String documentKey = documentKey(document);
+        PageText[] pages = new PageText[document.getNumberOfPages()];
+        boolean[] wasCached = collect(documentKey, pages);
+        synchronized (document) {
+            DocumentTextIndex.extractMissing(document, pages);
+        }
+        storeExtracted(documentKey, pages, wasCached);
+        return DocumentTextIndex.of(pages);
+    }
+
+    private boolean[] collect(String documentKey, PageText[] pages) {
+        boolean[] found = new boolean[pages.length];
+        synchronized (cache) {
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = cache.get(pageKey(documentKey, i));
+                found[i] = pages[i] != null;
+            }
+        }
+        return found;
+    }
+
+    private void storeExtracted(String documentKey, PageText[] pages, boolean[] wasCached) {
+        for (int i = 0; i < pages.length; i++) {
+            if (!wasCached[i] && pages[i] != null) {
+                store(pageKey(documentKey, i), pages[i]);
+            }
+        }
+    }
+
+    /**
+     * Forgets the text of an open document, for example after it was modified.
+     */
+    public void invalidate(PDDocument document) {
+        String prefix = documentKey(document) + "#";
+        synchronized (cache) {
+            Iterator<Map.Entry<String, PageText>> entries = cache.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, PageText> entry = entries.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    cachedBytes -= entry.getValue().estimatedBytes();
+                    entries.remove();
+                }
+            }
+        }
+        synchronized (documentIds) {
+            documentIds.remove(document);
+        }
+    }
+
+    /**
+     * Forgets the text of every version of a file and drops the background
+     * work queued for it, for example when the viewer stops keeping it warm.
+     */
+    public void invalidate(File pdfFile) {
+        String prefix = pdfFile.getAbsolutePath() + "|";
+        // Explicit requests still have callers waiting on them
+        dequeueIf(request -> request.priority != Priority.REQUESTED && request.documentKey.startsWith(prefix));
+        synchronized (cache) {
+            Iterator<Map.Entry<String, PageText>> entries = cache.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, PageText> entry = entries.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    cachedBytes -= entry.getValue().estimatedBytes();
+                    entries.remove();
+                }
+            }
+            pageCounts.keySet().removeIf(documentKey -> documentKey.startsWith(prefix));
+        }
+    }
+
+    private void runWorker() {
+        try {
+            while (!closed) {
+                Request request = queue.take();
+                String pageKey = pageKey(request.documentKey, request.pageIndex);
+                synchronized (queue) {
+                    queued.remove(pageKey, request);
+                }
+                PageText page = cached(pageKey);
+                if (page != null) {
+                    // Extracted meanwhile; only a request that raced with it may still be waiting
+                    CompletableFuture<PageText> waiting;
+                    synchronized (cache) {
+                        waiting = pending.remove(pageKey);
+                    }
+                    if (waiting != null) {
+                        waiting.complete(page);
+                    }
+                    continue;
+                }
+                // Leased per page, so rendering can have the handle between pages
+                try (DocumentHandlePool.Lease lease = documents.lease(request.file)) {
+                    store(pageKey, DocumentTextIndex.extractPage(lease.getDocument(), request.pageIndex));
+                } catch (Exception e) {
+                    System.err.println("Text extraction failed for page " + (request.pageIndex + 1) + " of "
+                            + request.file.getName() + ": " + e.getMessage());
+                    CompletableFuture<PageText> waiting;
+                    synchronized (cache) {
+                        waiting = pending.remove(pageKey);
+                    }
+                    if (waiting != null) {
+                        waiting.completeExceptionally(e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        synchronized (queue) {
+            queue.clear();
+            queued.clear();
+        }
+        synchronized (cache) {
+            pending.values().forEach(future -> future.cancel(false));
+            pending.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (cache) {
+            return String.format("TextLayerService[%d pages, %.1f/%d MB]", cache.size(),
+                    cachedBytes / (1024.0 * 1024.0), capacityBytes / (1024 * 1024));
+        }
+    }
+}
@@ -1,29 +1,42 @@
 package com.pdfxplorer.util;
 
-import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.pdfbox.text.TextPosition;
+import com.pdfxplorer.search.DocumentTextIndex.PageText;
+import com.pdfxplorer.search.MultiPatternMatcher;
+import com.pdfxplorer.text.TextLayerService;
+import org.apache.pdfbox.pdmodel.PDDocument;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-public class SearchHighlighter extends PDFTextStripper {
-    private final String searchWord;
-    private final List<SearchResult> searchResults = new ArrayList<>();
-    private final List<TextPosition> allTextPositions = new ArrayList<>();
-    private float pageHeight;
-
+/**
+ * Finds search terms on a page and boxes them for highlighting, from the
+ * glyph positions of the page's extracted text.
+ */
+public class SearchHighlighter {
+    private final List<String> searchWords = new ArrayList<>();
+    private final MultiPatternMatcher matcher;
+
+    /**
+     * Box of a match in points from the top-left corner of the page.
+     */
     public static class SearchResult {
         private final float x;
         private final float y;
         private final float width;
         private final float height;
+        private final int termIndex;
 
         public SearchResult(float x, float y, float width, float height) {
+            this(x, y, width, height, 0);
+        }
+
+        public SearchResult(float x, float y, float width, float height, int termIndex) {
             this.x = x;
             this.y = y;
             this.width = width;
             this.height = height;
+            this.termIndex = termIndex;
         }
 
         public float getX() {
@@ -41,166 +54,97 @@ public class SearchHighlighter extends PDFTextStripper {
         public float getHeight() {
             return height;
         }
-    }
 
-    private static class TextSegment {
-        List<TextPosition> positions;
-        String text;
-        float lineY;
-
-        TextSegment(float lineY) {
-            this.positions = new ArrayList<>();
-            this.text = "";
-            this.lineY = lineY;
+        /**
+         * Which of the search terms matched, so each can get its own color.
+         */
+        public int getTermIndex() {
+            return termIndex;
         }
     }
 
-    public SearchHighlighter(String searchWord) throws IOException {
-        this.searchWord = searchWord.toLowerCase().trim();
-        setSortByPosition(true);
-        setStartPage(1);
-        setEndPage(1);
+    public SearchHighlighter(String searchWord) {
+        this(new String[] { searchWord });
     }
 
-    @Override
-    protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
-        // Group text positions by their vertical position (same line)
-        float lastY = -1;
-        TextSegment currentSegment = null;
-
-        for (TextPosition position : textPositions) {
-            float currentY = position.getY();
-
-            // If we're on a new line or this is the first position
-            if (lastY == -1 || Math.abs(currentY - lastY) > position.getHeight() * 0.5) {
-                if (currentSegment != null) {
-                    processTextSegment(currentSegment);
-                }
-                currentSegment = new TextSegment(currentY);
-            }
-
-            // Add position to current segment
-            if (currentSegment != null) {
-                currentSegment.positions.add(position);
-                currentSegment.text += position.getUnicode();
-            }
-
-            lastY = currentY;
-        }
-
-        // Process the last segment
-        if (currentSegment != null) {
-            processTextSegment(currentSegment);
+    /**
+     * Highlights all of the given terms in a single pass over the page.
+     */
+    public SearchHighlighter(String... searchWords) {
+        for (String searchWord : searchWords) {
+            this.searchWords.add(searchWord.trim());
         }
+        this.matcher = new MultiPatternMatcher(this.searchWords);
     }
 
-    private void processTextSegment(TextSegment segment) {
-        if (segment.positions.isEmpty())
-            return;
-
-        // Sort positions by X coordinate
-        segment.positions.sort((a, b) -> Float.compare(a.getX(), b.getX()));
-
-        // Add positions with proper word boundaries
-        List<TextPosition> wordPositions = new ArrayList<>();
-        float expectedX = segment.positions.get(0).getX();
-
-        for (int i = 0; i < segment.positions.size(); i++) {
-            TextPosition position = segment.positions.get(i);
-            float gap = position.getX() - expectedX;
-
-            // If there's a significant gap, it might be a word boundary
-            if (gap > position.getWidth() * 0.5) {
-                // Process the completed word
-                if (!wordPositions.isEmpty()) {
-                    addWordToAllPositions(wordPositions);
-                    wordPositions = new ArrayList<>();
-                }
-            }
-
-            wordPositions.add(position);
-            expectedX = position.getX() + position.getWidth();
-
-            // Handle the last word in the segment
-            if (i == segment.positions.size() - 1 && !wordPositions.isEmpty()) {
-                addWordToAllPositions(wordPositions);
-            }
-        }
+    /**
+     * Finds the terms on a page, reading its text from the shared text layer
+     * instead of parsing the page again.
+     */
+    public List<SearchResult> search(PDDocument doc, int pageIndex) throws IOException {
+        return search(TextLayerService.getDefault().getPage(doc, pageIndex));
     }
 
-    private void addWordToAllPositions(List<TextPosition> wordPositions) {
-        // Add a small space between words for better searching
-        if (!allTextPositions.isEmpty()) {
-            TextPosition lastPos = allTextPositions.get(allTextPositions.size() - 1);
-            // Instead of creating a TextPosition directly, we'll just add a space character
-            allTextPositions.add(lastPos);
-        }
-        allTextPositions.addAll(wordPositions);
+    /**
+     * Finds the terms on an extracted page in one pass over its text.
+     */
+    public List<SearchResult> search(PageText page) {
+        List<SearchResult> results = new ArrayList<>();
+        // Line breaks match like the spaces between words; the length stays the same, so offsets hold
+        matcher.find(page.getText().replace('\n', ' '), (term, start, end) -> addResult(page, term, start, end,
+                results));
+        return results;
     }
 
-    @Override
-    public String getText(org.apache.pdfbox.pdmodel.PDDocument doc) throws IOException {
-        allTextPositions.clear();
-        searchResults.clear();
-        String text = super.getText(doc);
-        if (getCurrentPage() != null) {
-            pageHeight = getCurrentPage().getMediaBox().getHeight();
+    private static void addResult(PageText page, int term, int start, int end, List<SearchResult> results) {
+        // Terms with leading or trailing spaces start or end on a word boundary
+        String text = page.getText();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
         }
-        searchInPositions();
-        return text;
-    }
-
-    private void searchInPositions() {
-        if (allTextPositions.isEmpty() || searchWord.isEmpty())
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        int glyph = page.glyphAtOrAfter(start);
+        if (start == end || glyph >= page.getGlyphCount()) {
             return;
+        }
 
-        StringBuilder textBuilder = new StringBuilder();
-        List<TextPosition> currentPositions = new ArrayList<>();
-
-        for (TextPosition pos : allTextPositions) {
-            textBuilder.append(pos.getUnicode());
-            currentPositions.add(pos);
-
-            // Keep a sliding window of text that's at least as long as the search word
-            while (textBuilder.length() >= searchWord.length()) {
-                String currentText = textBuilder.toString().toLowerCase();
-                int foundIndex = currentText.indexOf(searchWord);
-
-                if (foundIndex != -1) {
-                    // Calculate the positions for the found text
-                    int startPosIndex = foundIndex;
-                    int endPosIndex = startPosIndex + searchWord.length() - 1;
-
-                    if (startPosIndex < currentPositions.size() && endPosIndex < currentPositions.size()) {
-                        TextPosition firstChar = currentPositions.get(startPosIndex);
-                        TextPosition lastChar = currentPositions.get(endPosIndex);
-
-                        // Calculate the bounding box in PDF coordinates
-                        float x = firstChar.getXDirAdj();
-                        float y = firstChar.getYDirAdj();
-                        float width = (lastChar.getXDirAdj() + lastChar.getWidthDirAdj()) - x;
-                        float height = Math.max(firstChar.getHeightDir(), lastChar.getHeightDir());
-
-                        searchResults.add(new SearchResult(x, y, width, height));
-                    }
-
-                    // Remove the matched text from the start to continue searching
-                    textBuilder.delete(0, foundIndex + 1);
-                    currentPositions.subList(0, foundIndex + 1).clear();
-                } else {
-                    // Remove one character from the start if no match is found
-                    textBuilder.deleteCharAt(0);
-                    currentPositions.remove(0);
-                }
+        // One box per line the match runs over, each bounding its glyphs in points, top-left origin
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (; glyph < page.getGlyphCount() && page.getCharStart(glyph) < end; glyph++) {
+            if (left != Float.MAX_VALUE && startsLine(page, glyph)) {
+                results.add(new SearchResult(left, top, right - left, bottom - top, term));
+                left = Float.MAX_VALUE;
+                top = Float.MAX_VALUE;
+                right = -Float.MAX_VALUE;
+                bottom = -Float.MAX_VALUE;
             }
+            left = Math.min(left, page.getX(glyph));
+            top = Math.min(top, page.getY(glyph));
+            right = Math.max(right, page.getX(glyph) + page.getWidth(glyph));
+            bottom = Math.max(bottom, page.getY(glyph) + page.getHeight(glyph));
         }
+        results.add(new SearchResult(left, top, right - left, bottom - top, term));
     }
 
-    public List<SearchResult> getSearchResults() {
-        return searchResults;
+    /**
+     * Whether a line break separates the glyph from the one before it.
+     */
+    private static boolean startsLine(PageText page, int glyph) {
+        String text = page.getText();
+        for (int c = page.getCharEnd(glyph - 1); c < page.getCharStart(glyph); c++) {
+            if (text.charAt(c) == '\n') {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public float getPageHeight() {
-        return pageHeight;
+    public List<String> getSearchWords() {
+        return searchWords;
     }
-}
\ No newline at end of file
+}
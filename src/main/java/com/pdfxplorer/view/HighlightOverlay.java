@@ -0,0 +1,158 @@
+package com.pdfxplorer.view;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+/**
+ * Draws every search highlight of a page on one canvas instead of one node
+ * per hit. Highlights are kept in page points (top-left origin), so zooming
+ * only resizes and repaints the canvas; rotation is a transform on the node.
+ * Changing the active hit repaints just the area of the old and new one.
+ */
+public final class HighlightOverlay extends Canvas {
+    // Larger canvases are drawn at reduced resolution and scaled up, to stay within texture limits
+    private static final double MAX_CANVAS_SIZE = 8192;
+
+    private static final Color FILL = Color.YELLOW.deriveColor(0, 1.0, 1.0, 0.3);
+    private static final Color STROKE = Color.ORANGE;
+    private static final Color ACTIVE_FILL = Color.ORANGE.deriveColor(0, 1.0, 1.0, 0.45);
+    private static final Color ACTIVE_STROKE = Color.ORANGERED;
+
+    // x, y, width, height per highlight
+    private float[] boxes = new float[64];
+    private int count = 0;
+    private int active = -1;
+    private double viewScale = 1;
+    private double pixelScale = 1;
+
+    public HighlightOverlay() {
+        setMouseTransparent(true);
+    }
+
+    /**
+     * Sizes the overlay for a page of the given size in points, shown at the
+     * given number of view units per point, and repaints it.
+     */
+    public void setPageSize(double pageWidthPoints, double pageHeightPoints, double viewUnitsPerPoint) {
+        double width = pageWidthPoints * viewUnitsPerPoint;
+        double height = pageHeightPoints * viewUnitsPerPoint;
+        viewScale = viewUnitsPerPoint;
+        pixelScale = Math.min(1.0, MAX_CANVAS_SIZE / Math.max(1.0, Math.max(width, height)));
+        setWidth(Math.ceil(width * pixelScale));
+        setHeight(Math.ceil(height * pixelScale));
+        // Scaling is about the center, which the parent already lays out where the page is
+        setScaleX(1 / pixelScale);
+        setScaleY(1 / pixelScale);
+        repaint(0, 0, getWidth(), getHeight());
+    }
+
+    public int add(float x, float y, float width, float height) {
+        ensureCapacity(count + 1);
+        int index = count++;
+        boxes[index * 4] = x;
+        boxes[index * 4 + 1] = y;
+        boxes[index * 4 + 2] = width;
+        boxes[index * 4 + 3] = height;
+        // Drawn on top of what is there; nothing underneath needs repainting
+        GraphicsContext graphics = getGraphicsContext2D();
+        graphics.setLineWidth(1.0);
+        drawBox(graphics, index);
+        return index;
+    }
+
+    /**
+     * Adds many highlights, four floats each, with a single repaint.
+     */
+    public void addAll(float[] newBoxes) {
+        int added = newBoxes.length / 4;
+        ensureCapacity(count + added);
+        System.arraycopy(newBoxes, 0, boxes, count * 4, added * 4);
+        count += added;
+        repaint(0, 0, getWidth(), getHeight());
+    }
+
+    private void ensureCapacity(int highlights) {
+        if (highlights * 4 > boxes.length) {
+            boxes = Arrays.copyOf(boxes, Math.max(boxes.length * 2, highlights * 4));
+        }
+    }
+
+    public void clear() {
+        count = 0;
+        active = -1;
+        getGraphicsContext2D().clearRect(0, 0, getWidth(), getHeight());
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * Marks one highlight as the current hit, or none with -1.
+     */
+    public void setActive(int index) {
+        if (index == active) {
+            return;
+        }
+        int previous = active;
+        active = index >= 0 && index < count ? index : -1;
+        paintDirty(previous);
+        paintDirty(active);
+    }
+
+    private void paintDirty(int index) {
+        if (index < 0) {
+            return;
+        }
+        // Stroke width plus a pixel of antialiasing around the box
+        double margin = 2;
+        double x = boxes[index * 4] * viewScale * pixelScale - margin;
+        double y = boxes[index * 4 + 1] * viewScale * pixelScale - margin;
+        double width = boxes[index * 4 + 2] * viewScale * pixelScale + margin * 2;
+        double height = boxes[index * 4 + 3] * viewScale * pixelScale + margin * 2;
+        repaint(x, y, width, height);
+    }
+
+    /**
+     * Clears and redraws the highlights overlapping a region in canvas pixels.
+     */
+    private void repaint(double x, double y, double width, double height) {
+        GraphicsContext graphics = getGraphicsContext2D();
+        graphics.save();
+        graphics.beginPath();
+        graphics.rect(x, y, width, height);
+        graphics.clip();
+        graphics.clearRect(x, y, width, height);
+
+        double scale = viewScale * pixelScale;
+        graphics.setLineWidth(1.0);
+        for (int i = 0; i < count; i++) {
+            double left = boxes[i * 4] * scale;
+            double top = boxes[i * 4 + 1] * scale;
+            if (left <= x + width && top <= y + height
+                    && left + boxes[i * 4 + 2] * scale >= x && top + boxes[i * 4 + 3] * scale >= y) {
+                drawBox(graphics, i);
+            }
+        }
+        graphics.restore();
+    }
+
+    private void drawBox(GraphicsContext graphics, int index) {
+        double scale = viewScale * pixelScale;
+        double left = boxes[index * 4] * scale;
+        double top = boxes[index * 4 + 1] * scale;
+        double width = boxes[index * 4 + 2] * scale;
+        double height = boxes[index * 4 + 3] * scale;
+        graphics.setFill(index == active ? ACTIVE_FILL : FILL);
+        graphics.setStroke(index == active ? ACTIVE_STROKE : STROKE);
+        graphics.fillRect(left, top, width, height);
+        graphics.strokeRect(left, top, width, height);
+    }
+}
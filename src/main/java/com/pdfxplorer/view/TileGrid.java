@@ -0,0 +1,63 @@
+package com.pdfxplorer.view;
+
+import javafx.geometry.Rectangle2D;
+
+/**
+ * Splits a rendered page into fixed-size square tiles, map viewer style.
+ * Pages whose full render would exceed the size threshold are shown as a
+ * low-resolution base image with only the tiles near the viewport rendered
+ * at full resolution on top. All sizes are in rendered pixels.
+ */
+public final class TileGrid {
+    // Edge length of a tile in rendered pixels
+    public static final String TILE_SIZE_PROPERTY = "pdfxplorer.render.tileSize";
+    // Pages rendering to more megapixels than this are tiled
+    public static final String THRESHOLD_PROPERTY = "pdfxplorer.render.tileThresholdMpx";
+
+    private static final int TILE_SIZE = Math.max(64, Integer.getInteger(TILE_SIZE_PROPERTY, 512));
+    private static final double THRESHOLD_PIXELS = Integer.getInteger(THRESHOLD_PROPERTY, 16) * 1_000_000.0;
+
+    private TileGrid() {
+    }
+
+    public static int getTileSize() {
+        return TILE_SIZE;
+    }
+
+    public static boolean needsTiling(double width, double height) {
+        return width * height > THRESHOLD_PIXELS;
+    }
+
+    /**
+     * Largest scale (at most 1) at which a page of this size renders untiled,
+     * used for the base image underneath the tiles.
+     */
+    public static double maxUntiledScale(double width, double height) {
+        return Math.min(1.0, Math.sqrt(THRESHOLD_PIXELS / Math.max(1.0, width * height)));
+    }
+
+    public static int columns(double width) {
+        return (int) Math.ceil(width / TILE_SIZE);
+    }
+
+    public static int rows(double height) {
+        return (int) Math.ceil(height / TILE_SIZE);
+    }
+
+    public static int columnAt(double x) {
+        return (int) Math.floor(x / TILE_SIZE);
+    }
+
+    public static int rowAt(double y) {
+        return (int) Math.floor(y / TILE_SIZE);
+    }
+
+    /**
+     * Bounds of a tile; tiles on the right and bottom edges are cut to the page.
+     */
+    public static Rectangle2D tileBounds(int column, int row, double width, double height) {
+        double x = (double) column * TILE_SIZE;
+        double y = (double) row * TILE_SIZE;
+        return new Rectangle2D(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+    }
+}
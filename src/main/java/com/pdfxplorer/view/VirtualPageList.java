@@ -0,0 +1,439 @@
+package com.pdfxplorer.view;
+
+import javafx.geometry.Bounds;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Node;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A virtualized vertical list of PDF pages inside a ScrollPane.
+ * Only pages intersecting the viewport (plus a prefetch margin) get a node;
+ * the rest of the document is represented by two spacers sized from the
+ * page dimensions, so memory stays bounded regardless of page count.
+ * Page nodes are recycled as the user scrolls. Each page node stacks a
+ * tile layer over its image for pages rendered in tiles.
+ */
+public final class VirtualPageList {
+    // Number of pages kept bound above and below the viewport
+    public static final String PREFETCH_PAGES_PROPERTY = "pdfxplorer.view.prefetchPages";
+
+    public static final double PAGE_PADDING = 20;
+
+    /**
+     * Receives page views as they enter and leave the bound range.
+     */
+    public interface PageBinder {
+        void bindPage(int pageIndex, ImageView pageView);
+
+        void unbindPage(int pageIndex, ImageView pageView);
+    }
+
+    private final ScrollPane scrollPane;
+    private final VBox container;
+    private final PageBinder binder;
+    private final Region topSpacer = new Region();
+    private final Region bottomSpacer = new Region();
+    private final Map<Integer, VBox> boundPages = new HashMap<>();
+    private final Deque<VBox> recycledPages = new ArrayDeque<>();
+    private int prefetchPages = Integer.getInteger(PREFETCH_PAGES_PROPERTY, 2);
+
+    // Page sizes in PDF points and the laid-out offsets at the current zoom
+    private double[] pageWidths = new double[0];
+    private double[] pageHeights = new double[0];
+    private double[] pageOffsets = new double[] { 0 };
+    private double zoom = 1.0;
+    private int rotation = 0;
+    private int firstBound = 0;
+    private int lastBound = -1;
+
+    public VirtualPageList(ScrollPane scrollPane, VBox container, PageBinder binder) {
+        this.scrollPane = scrollPane;
+        this.container = container;
+        this.binder = binder;
+
+        scrollPane.vvalueProperty().addListener((obs, oldVal, newVal) -> updateBoundPages());
+        scrollPane.viewportBoundsProperty().addListener((obs, oldVal, newVal) -> updateBoundPages());
+    }
+
+    public void setDocument(double[] widths, double[] heights) {
+        clear();
+        this.pageWidths = widths.clone();
+        this.pageHeights = heights.clone();
+        layoutPages();
+        container.getChildren().setAll(topSpacer, bottomSpacer);
+        updateBoundPages();
+    }
+
+    public void clear() {
+        unbindAll();
+        pageWidths = new double[0];
+        pageHeights = new double[0];
+        pageOffsets = new double[] { 0 };
+        container.getChildren().clear();
+    }
+
+    public void setZoom(double zoom) {
+        this.zoom = zoom;
+        layoutPages();
+    }
+
+    public void setRotation(int rotation) {
+        this.rotation = rotation;
+        layoutPages();
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = Math.max(0, prefetchPages);
+        updateBoundPages();
+    }
+
+    /**
+     * Rebinds every page in range, e.g. after a zoom change. Pages keep their
+     * current image, already scaled to the new size, until the binder replaces it.
+     */
+    public void refresh() {
+        Set<Integer> alreadyBound = new HashSet<>(boundPages.keySet());
+        updateBoundPages();
+        for (int i = firstBound; i <= lastBound; i++) {
+            if (alreadyBound.contains(i)) {
+                binder.bindPage(i, getPageView(i));
+            }
+        }
+    }
+
+    private void layoutPages() {
+        int count = pageHeights.length;
+        pageOffsets = new double[count + 1];
+        double maxWidth = 0;
+        for (int i = 0; i < count; i++) {
+            pageOffsets[i + 1] = pageOffsets[i] + getDisplayHeight(i) + 2 * PAGE_PADDING;
+            maxWidth = Math.max(maxWidth, getDisplayWidth(i));
+        }
+
+        // Spacers keep the content width stable while pages come and go
+        double contentWidth = maxWidth + 2 * PAGE_PADDING;
+        topSpacer.setMinWidth(contentWidth);
+        bottomSpacer.setMinWidth(contentWidth);
+
+        for (Map.Entry<Integer, VBox> entry : boundPages.entrySet()) {
+            sizePage(entry.getValue(), entry.getKey());
+        }
+        updateSpacers();
+    }
+
+    private void updateBoundPages() {
+        int count = getPageCount();
+        if (count == 0) {
+            return;
+        }
+
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        double scrollY = getScrollY();
+        int first = Math.max(0, pageAt(scrollY) - prefetchPages);
+        int last = Math.min(count - 1, pageAt(scrollY + viewportHeight) + prefetchPages);
+        if (first == firstBound && last == lastBound && !boundPages.isEmpty()) {
+            return;
+        }
+
+        // Release pages that scrolled out of range
+        List<Integer> released = new ArrayList<>();
+        for (Integer pageIndex : boundPages.keySet()) {
+            if (pageIndex < first || pageIndex > last) {
+                released.add(pageIndex);
+            }
+        }
+        for (Integer pageIndex : released) {
+            recyclePage(pageIndex);
+        }
+
+        List<Node> children = new ArrayList<>(last - first + 3);
+        children.add(topSpacer);
+        List<Integer> newlyBound = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            VBox pageBox = boundPages.get(i);
+            if (pageBox == null) {
+                pageBox = obtainPage(i);
+                newlyBound.add(i);
+            }
+            children.add(pageBox);
+        }
+        children.add(bottomSpacer);
+
+        firstBound = first;
+        lastBound = last;
+        updateSpacers();
+        container.getChildren().setAll(children);
+
+        // Bind after the nodes are in place so binders can rely on the layout
+        for (Integer pageIndex : newlyBound) {
+            binder.bindPage(pageIndex, getPageView(pageIndex));
+        }
+    }
+
+    private VBox obtainPage(int pageIndex) {
+        VBox pageBox = recycledPages.poll();
+        if (pageBox == null) {
+            pageBox = new VBox();
+            pageBox.setAlignment(Pos.CENTER);
+            pageBox.setPadding(new Insets(PAGE_PADDING)); // Add padding around pages
+            pageBox.getStyleClass().add("pdf-page");
+
+            ImageView pageView = new ImageView();
+            pageView.setPreserveRatio(true);
+            pageView.setSmooth(true);
+
+            // Tiles are positioned in page coordinates over the base image
+            Pane tileLayer = new Pane();
+            tileLayer.setMouseTransparent(true);
+            pageBox.getChildren().add(new StackPane(pageView, tileLayer));
+        }
+        pageBox.setUserData(pageIndex);
+        sizePage(pageBox, pageIndex);
+        boundPages.put(pageIndex, pageBox);
+        return pageBox;
+    }
+
+    private void sizePage(VBox pageBox, int pageIndex) {
+        double width = getDisplayWidth(pageIndex);
+        double height = getDisplayHeight(pageIndex);
+        pageBox.setMinHeight(height + 2 * PAGE_PADDING);
+        pageBox.setPrefHeight(height + 2 * PAGE_PADDING);
+        pageBox.setMaxHeight(height + 2 * PAGE_PADDING);
+
+        // Whatever image is shown is scaled to the placeholder size
+        ImageView pageView = pageViewOf(pageBox);
+        pageView.setFitWidth(width);
+        pageView.setFitHeight(height);
+        Pane tileLayer = tileLayerOf(pageBox);
+        tileLayer.setMinSize(width, height);
+        tileLayer.setPrefSize(width, height);
+        tileLayer.setMaxSize(width, height);
+    }
+
+    private static ImageView pageViewOf(VBox pageBox) {
+        return (ImageView) ((StackPane) pageBox.getChildren().get(0)).getChildren().get(0);
+    }
+
+    private static Pane tileLayerOf(VBox pageBox) {
+        return (Pane) ((StackPane) pageBox.getChildren().get(0)).getChildren().get(1);
+    }
+
+    private void recyclePage(int pageIndex) {
+        VBox pageBox = boundPages.get(pageIndex);
+        if (pageBox == null) {
+            return;
+        }
+        // Unbind while the page is still reachable so the binder can release its tiles
+        ImageView pageView = pageViewOf(pageBox);
+        binder.unbindPage(pageIndex, pageView);
+        boundPages.remove(pageIndex);
+        pageView.setImage(null);
+        tileLayerOf(pageBox).getChildren().clear();
+        pageBox.setUserData(null);
+        recycledPages.push(pageBox);
+    }
+
+    private void unbindAll() {
+        for (Integer pageIndex : new ArrayList<>(boundPages.keySet())) {
+            recyclePage(pageIndex);
+        }
+        firstBound = 0;
+        lastBound = -1;
+    }
+
+    private void updateSpacers() {
+        int count = getPageCount();
+        double top = count == 0 ? 0 : pageOffsets[Math.min(firstBound, count)];
+        double bottom = count == 0 || lastBound < 0 ? getContentHeight() - top
+                : getContentHeight() - pageOffsets[lastBound + 1];
+        setFixedHeight(topSpacer, top);
+        setFixedHeight(bottomSpacer, bottom);
+    }
+
+    private static void setFixedHeight(Region region, double height) {
+        region.setMinHeight(height);
+        region.setPrefHeight(height);
+        region.setMaxHeight(height);
+    }
+
+    private double getScrollY() {
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        return scrollPane.getVvalue() * Math.max(0, getContentHeight() - viewportHeight);
+    }
+
+    /**
+     * Index of the page covering the given content y coordinate.
+     */
+    public int pageAt(double y) {
+        int count = getPageCount();
+        if (count == 0) {
+            return -1;
+        }
+        // Binary search over the cumulative page offsets
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pageOffsets[mid] <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getMostVisiblePage() {
+        int count = getPageCount();
+        if (count == 0) {
+            return -1;
+        }
+
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        double scrollY = getScrollY();
+        int bestMatchPage = pageAt(scrollY);
+        double bestVisibleArea = 0;
+
+        for (int i = bestMatchPage; i < count && pageOffsets[i] < scrollY + viewportHeight; i++) {
+            double visibleTop = Math.max(scrollY, pageOffsets[i]);
+            double visibleBottom = Math.min(scrollY + viewportHeight, pageOffsets[i + 1]);
+            double visibleArea = Math.max(0, visibleBottom - visibleTop);
+            if (visibleArea > bestVisibleArea) {
+                bestVisibleArea = visibleArea;
+                bestMatchPage = i;
+            }
+        }
+        return bestMatchPage;
+    }
+
+    public void scrollToPage(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= getPageCount()) {
+            return;
+        }
+        double contentHeight = getContentHeight();
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        double pageTop = pageOffsets[pageIndex];
+        double pageHeight = pageOffsets[pageIndex + 1] - pageTop;
+
+        // Calculate scroll position to center the page
+        double targetY = pageTop - (viewportHeight - pageHeight) / 2;
+        targetY = Math.max(0, Math.min(targetY, contentHeight - viewportHeight));
+
+        double scrollRange = contentHeight - viewportHeight;
+        double vvalue = scrollRange > 0 ? targetY / scrollRange : 0;
+        scrollPane.setVvalue(Math.max(0, Math.min(1, vvalue)));
+        updateBoundPages();
+    }
+
+    public ImageView getPageView(int pageIndex) {
+        VBox pageBox = boundPages.get(pageIndex);
+        return pageBox == null ? null : pageViewOf(pageBox);
+    }
+
+    public Pane getTileLayer(int pageIndex) {
+        VBox pageBox = boundPages.get(pageIndex);
+        return pageBox == null ? null : tileLayerOf(pageBox);
+    }
+
+    /**
+     * The part of a bound page inside the viewport, in the page view's
+     * coordinates, or null if none of it is visible.
+     */
+    public Rectangle2D getVisibleRegion(int pageIndex) {
+        ImageView pageView = getPageView(pageIndex);
+        if (pageView == null || pageView.getScene() == null) {
+            return null;
+        }
+        Bounds visible = pageView.sceneToLocal(scrollPane.localToScene(scrollPane.getLayoutBounds()));
+        double minX = Math.max(0, visible.getMinX());
+        double minY = Math.max(0, visible.getMinY());
+        double maxX = Math.min(pageView.getFitWidth(), visible.getMaxX());
+        double maxY = Math.min(pageView.getFitHeight(), visible.getMaxY());
+        if (maxX <= minX || maxY <= minY) {
+            return null;
+        }
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Whether any part of the page is inside the viewport, ignoring the prefetch margin.
+     */
+    public boolean isInViewport(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= getPageCount()) {
+            return false;
+        }
+        double scrollY = getScrollY();
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        return pageOffsets[pageIndex + 1] > scrollY && pageOffsets[pageIndex] < scrollY + viewportHeight;
+    }
+
+    public boolean isBound(int pageIndex, ImageView pageView) {
+        return pageView != null && getPageView(pageIndex) == pageView;
+    }
+
+    public int getFirstBoundPage() {
+        return firstBound;
+    }
+
+    public int getLastBoundPage() {
+        return lastBound;
+    }
+
+    public int getPageCount() {
+        return pageHeights.length;
+    }
+
+    /**
+     * Page width in points as displayed, i.e. after the view rotation.
+     */
+    public double getPageWidth(int pageIndex) {
+        return isQuarterTurn() ? pageHeights[pageIndex] : pageWidths[pageIndex];
+    }
+
+    /**
+     * Page height in points as displayed, i.e. after the view rotation.
+     */
+    public double getPageHeight(int pageIndex) {
+        return isQuarterTurn() ? pageWidths[pageIndex] : pageHeights[pageIndex];
+    }
+
+    public double getDisplayWidth(int pageIndex) {
+        return getPageWidth(pageIndex) * zoom;
+    }
+
+    public double getDisplayHeight(int pageIndex) {
+        return getPageHeight(pageIndex) * zoom;
+    }
+
+    private boolean isQuarterTurn() {
+        // Pages turned by 90 or 270 degrees swap their width and height
+        return rotation % 180 != 0;
+    }
+
+    public double getContentHeight() {
+        return pageOffsets[pageOffsets.length - 1];
+    }
+}
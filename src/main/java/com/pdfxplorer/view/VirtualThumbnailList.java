@@ -0,0 +1,281 @@
+package com.pdfxplorer.view;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The thumbnail strip, virtualized like VirtualPageList: only thumbnails
+ * near the sidebar's viewport get a node and a render, the rest of the
+ * document is two spacers sized from the page dimensions. Thumbnail boxes
+ * are recycled as the strip scrolls.
+ */
+public final class VirtualThumbnailList {
+    public static final double THUMBNAIL_WIDTH = 150;
+    // Label, spacing, padding and border of a thumbnail box around its image
+    private static final double THUMBNAIL_CHROME = 40;
+    // Space between two thumbnails and around the strip
+    private static final double GAP = 10;
+    // Thumbnails kept bound above and below the viewport
+    private static final int PREFETCH_THUMBNAILS = 4;
+
+    /**
+     * Receives thumbnail views as they enter and leave the bound range, and
+     * clicks on them.
+     */
+    public interface ThumbnailBinder {
+        void bindThumbnail(int pageIndex, ImageView thumbnailView);
+
+        void unbindThumbnail(int pageIndex, ImageView thumbnailView);
+
+        void thumbnailClicked(int pageIndex);
+    }
+
+    private final ScrollPane scrollPane;
+    private final VBox container;
+    private final ThumbnailBinder binder;
+    private final Region topSpacer = new Region();
+    private final Region bottomSpacer = new Region();
+    private final Map<Integer, VBox> boundThumbnails = new HashMap<>();
+    private final Deque<VBox> recycledThumbnails = new ArrayDeque<>();
+
+    // Image heights at the thumbnail width and the laid-out offsets of each box
+    private double[] imageHeights = new double[0];
+    private double[] offsets = new double[] { 0 };
+    private int firstBound = 0;
+    private int lastBound = -1;
+    private int selected = -1;
+
+    public VirtualThumbnailList(ScrollPane scrollPane, VBox container, ThumbnailBinder binder) {
+        this.scrollPane = scrollPane;
+        this.container = container;
+        this.binder = binder;
+
+        // Offsets include the gaps, so the container adds none of its own
+        container.setSpacing(0);
+        container.setPadding(Insets.EMPTY);
+        container.setAlignment(Pos.TOP_CENTER);
+        scrollPane.vvalueProperty().addListener((obs, oldVal, newVal) -> updateBoundThumbnails());
+        scrollPane.viewportBoundsProperty().addListener((obs, oldVal, newVal) -> updateBoundThumbnails());
+    }
+
+    /**
+     * Lays out a thumbnail per page from the unrotated page sizes, which is
+     * how thumbnails are rendered.
+     */
+    public void setDocument(double[] widths, double[] heights) {
+        clear();
+        int count = heights.length;
+        imageHeights = new double[count];
+        offsets = new double[count + 1];
+        for (int i = 0; i < count; i++) {
+            imageHeights[i] = widths[i] > 0 ? THUMBNAIL_WIDTH * heights[i] / widths[i] : THUMBNAIL_WIDTH;
+            offsets[i + 1] = offsets[i] + imageHeights[i] + THUMBNAIL_CHROME + GAP;
+        }
+        container.getChildren().setAll(topSpacer, bottomSpacer);
+        updateSpacers();
+        updateBoundThumbnails();
+    }
+
+    public void clear() {
+        for (Integer pageIndex : new ArrayList<>(boundThumbnails.keySet())) {
+            recycleThumbnail(pageIndex);
+        }
+        firstBound = 0;
+        lastBound = -1;
+        selected = -1;
+        imageHeights = new double[0];
+        offsets = new double[] { 0 };
+        container.getChildren().clear();
+    }
+
+    private void updateBoundThumbnails() {
+        int count = getPageCount();
+        if (count == 0) {
+            return;
+        }
+
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        double scrollY = getScrollY();
+        int first = Math.max(0, thumbnailAt(scrollY) - PREFETCH_THUMBNAILS);
+        int last = Math.min(count - 1, thumbnailAt(scrollY + viewportHeight) + PREFETCH_THUMBNAILS);
+        if (first == firstBound && last == lastBound && !boundThumbnails.isEmpty()) {
+            return;
+        }
+
+        List<Integer> released = new ArrayList<>();
+        for (Integer pageIndex : boundThumbnails.keySet()) {
+            if (pageIndex < first || pageIndex > last) {
+                released.add(pageIndex);
+            }
+        }
+        for (Integer pageIndex : released) {
+            recycleThumbnail(pageIndex);
+        }
+
+        List<Node> children = new ArrayList<>(last - first + 3);
+        children.add(topSpacer);
+        List<Integer> newlyBound = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            VBox thumbnailBox = boundThumbnails.get(i);
+            if (thumbnailBox == null) {
+                thumbnailBox = obtainThumbnail(i);
+                newlyBound.add(i);
+            }
+            children.add(thumbnailBox);
+        }
+        children.add(bottomSpacer);
+
+        firstBound = first;
+        lastBound = last;
+        updateSpacers();
+        container.getChildren().setAll(children);
+
+        for (Integer pageIndex : newlyBound) {
+            binder.bindThumbnail(pageIndex, thumbnailViewOf(boundThumbnails.get(pageIndex)));
+        }
+    }
+
+    private VBox obtainThumbnail(int pageIndex) {
+        VBox thumbnailBox = recycledThumbnails.poll();
+        if (thumbnailBox == null) {
+            thumbnailBox = new VBox(5);
+            thumbnailBox.getStyleClass().add("thumbnail");
+            thumbnailBox.setAlignment(Pos.TOP_CENTER);
+            thumbnailBox.setMaxWidth(THUMBNAIL_WIDTH + 2 * GAP);
+            VBox.setMargin(thumbnailBox, new Insets(GAP / 2, 0, GAP / 2, 0));
+
+            ImageView thumbnailView = new ImageView();
+            thumbnailView.setFitWidth(THUMBNAIL_WIDTH);
+            thumbnailView.setPreserveRatio(true);
+            thumbnailView.setSmooth(true);
+
+            Label pageLabel = new Label();
+            pageLabel.getStyleClass().add("thumbnail-label");
+            thumbnailBox.getChildren().addAll(thumbnailView, pageLabel);
+
+            VBox box = thumbnailBox;
+            thumbnailBox.setOnMouseClicked(e -> {
+                if (box.getUserData() instanceof Integer) {
+                    binder.thumbnailClicked((Integer) box.getUserData());
+                }
+            });
+        }
+        thumbnailBox.setUserData(pageIndex);
+        ((Label) thumbnailBox.getChildren().get(1)).setText("Page " + (pageIndex + 1));
+
+        // The box keeps its laid-out height before the image arrives
+        double height = imageHeights[pageIndex] + THUMBNAIL_CHROME;
+        thumbnailBox.setMinHeight(height);
+        thumbnailBox.setPrefHeight(height);
+        thumbnailBox.setMaxHeight(height);
+        thumbnailViewOf(thumbnailBox).setFitHeight(imageHeights[pageIndex]);
+        if (pageIndex == selected) {
+            thumbnailBox.getStyleClass().add("thumbnail-selected");
+        }
+        boundThumbnails.put(pageIndex, thumbnailBox);
+        return thumbnailBox;
+    }
+
+    private static ImageView thumbnailViewOf(VBox thumbnailBox) {
+        return (ImageView) thumbnailBox.getChildren().get(0);
+    }
+
+    private void recycleThumbnail(int pageIndex) {
+        VBox thumbnailBox = boundThumbnails.remove(pageIndex);
+        if (thumbnailBox == null) {
+            return;
+        }
+        ImageView thumbnailView = thumbnailViewOf(thumbnailBox);
+        binder.unbindThumbnail(pageIndex, thumbnailView);
+        thumbnailView.setImage(null);
+        thumbnailBox.getStyleClass().remove("thumbnail-selected");
+        thumbnailBox.setUserData(null);
+        recycledThumbnails.push(thumbnailBox);
+    }
+
+    private void updateSpacers() {
+        int count = getPageCount();
+        double top = count == 0 ? 0 : offsets[Math.min(firstBound, count)];
+        double bottom = count == 0 || lastBound < 0 ? getContentHeight() - top
+                : getContentHeight() - offsets[lastBound + 1];
+        setFixedHeight(topSpacer, top);
+        setFixedHeight(bottomSpacer, bottom);
+    }
+
+    private static void setFixedHeight(Region region, double height) {
+        region.setMinHeight(height);
+        region.setPrefHeight(height);
+        region.setMaxHeight(height);
+    }
+
+    private double getScrollY() {
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        return scrollPane.getVvalue() * Math.max(0, getContentHeight() - viewportHeight);
+    }
+
+    private int thumbnailAt(double y) {
+        int low = 0;
+        int high = getPageCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Marks the thumbnail of the page as the current one and scrolls it into
+     * view if it is not fully visible.
+     */
+    public void select(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= getPageCount()) {
+            return;
+        }
+        VBox previous = boundThumbnails.get(selected);
+        if (previous != null) {
+            previous.getStyleClass().remove("thumbnail-selected");
+        }
+        selected = pageIndex;
+        VBox current = boundThumbnails.get(pageIndex);
+        if (current != null && !current.getStyleClass().contains("thumbnail-selected")) {
+            current.getStyleClass().add("thumbnail-selected");
+        }
+
+        double viewportHeight = scrollPane.getViewportBounds().getHeight();
+        double scrollY = getScrollY();
+        double scrollRange = getContentHeight() - viewportHeight;
+        if (scrollRange > 0 && (offsets[pageIndex] < scrollY || offsets[pageIndex + 1] > scrollY + viewportHeight)) {
+            scrollPane.setVvalue(Math.max(0, Math.min(1, offsets[pageIndex] / scrollRange)));
+        }
+        updateBoundThumbnails();
+    }
+
+    public boolean isBound(int pageIndex, ImageView thumbnailView) {
+        VBox thumbnailBox = boundThumbnails.get(pageIndex);
+        return thumbnailBox != null && thumbnailViewOf(thumbnailBox) == thumbnailView;
+    }
+
+    public int getPageCount() {
+        return imageHeights.length;
+    }
+
+    public double getContentHeight() {
+        return offsets[offsets.length - 1];
+    }
+}
@@ -1,56 +1,133 @@
 import sys
+import os
 import json
+import mmap
+import queue
+import struct
+import threading
+import zlib
 import fitz  # PyMuPDF
 import base64
+from collections import OrderedDict
 from io import BytesIO
-from PIL import Image
+
+# Documents kept open by the persistent worker, keyed by path
+MAX_OPEN_DOCUMENTS = 8
+_open_documents = OrderedDict()
+
+
+def open_document(pdf_path):
+    # Reuse the cached document unless the file changed on disk
+    mtime = os.path.getmtime(pdf_path)
+    cached = _open_documents.get(pdf_path)
+    if cached is not None:
+        doc, cached_mtime = cached
+        if cached_mtime == mtime:
+            _open_documents.move_to_end(pdf_path)
+            return doc
+        doc.close()
+        del _open_documents[pdf_path]
+
+    doc = fitz.open(pdf_path)
+    _open_documents[pdf_path] = (doc, mtime)
+
+    # Drop the least recently used documents
+    while len(_open_documents) > MAX_OPEN_DOCUMENTS:
+        _, (old_doc, _) = _open_documents.popitem(last=False)
+        old_doc.close()
+    return doc
+
+
+def close_document(pdf_path):
+    cached = _open_documents.pop(pdf_path, None)
+    if cached is not None:
+        cached[0].close()
+
+
+def render_document_pixmap(doc, page_num, zoom=1.0, rotation=0, clip=None):
+    if not (0 <= page_num < doc.page_count):
+        raise ValueError(f"Page number out of range. Total pages: {doc.page_count}")
+
+    # Get the page
+    page = doc[page_num]
+
+    # Calculate matrix for zoom and the viewer's extra rotation
+    matrix = fitz.Matrix(zoom, zoom)
+    if rotation:
+        matrix = matrix.prerotate(rotation)
+
+    # A clip (x, y, width, height) is given in rendered pixels, i.e. after zoom
+    # and rotation; MuPDF wants it in page space, so map it back through the matrix
+    page_clip = None
+    if clip:
+        x, y, width, height = (float(value) for value in clip)
+        bounds = page.rect * matrix
+        page_clip = fitz.Rect(bounds.x0 + x, bounds.y0 + y,
+                              bounds.x0 + x + width, bounds.y0 + y + height) * ~matrix
+
+    # Render page to pixmap
+    pix = page.get_pixmap(matrix=matrix, clip=page_clip)
+
+    # Get page info
+    page_info = {
+        "width": page.rect.width,
+        "height": page.rect.height,
+        "rotation": page.rotation,
+        "rendered_width": pix.width,
+        "rendered_height": pix.height
+    }
+    return pix, page_info
+
+
+def render_document_page(doc, page_num, zoom=1.0):
+    from PIL import Image
+
+    try:
+        pix, page_info = render_document_pixmap(doc, page_num, zoom)
+    except ValueError as e:
+        return {
+            "success": False,
+            "error": str(e)
+        }
+
+    # Convert to PIL Image
+    img = Image.frombytes("RGB", [pix.width, pix.height], pix.samples)
+
+    # Save to bytes
+    img_byte_arr = BytesIO()
+    img.save(img_byte_arr, format='PNG')
+    img_byte_arr = img_byte_arr.getvalue()
+
+    # Convert to base64
+    img_base64 = base64.b64encode(img_byte_arr).decode()
+
+    return {
+        "success": True,
+        "image": img_base64,
+        "page_info": page_info
+    }
+
+
+def document_info(doc):
+    info = {
+        "page_count": doc.page_count,
+        "metadata": doc.metadata,
+        "is_encrypted": doc.is_encrypted,
+        "page_sizes": [
+            {"width": page.rect.width, "height": page.rect.height}
+            for page in doc
+        ]
+    }
+    return {
+        "success": True,
+        "info": info
+    }
+
 
 def render_page(pdf_path, page_num, zoom=1.0):
     try:
-        # Open the PDF
         doc = fitz.open(pdf_path)
-        
-        if not (0 <= page_num < doc.page_count):
-            return json.dumps({
-                "success": False,
-                "error": f"Page number out of range. Total pages: {doc.page_count}"
-            })
-
-        # Get the page
-        page = doc[page_num]
-        
-        # Calculate matrix for zoom
-        matrix = fitz.Matrix(zoom, zoom)
-        
-        # Render page to pixmap
-        pix = page.get_pixmap(matrix=matrix)
-        
-        # Convert to PIL Image
-        img = Image.frombytes("RGB", [pix.width, pix.height], pix.samples)
-        
-        # Save to bytes
-        img_byte_arr = BytesIO()
-        img.save(img_byte_arr, format='PNG')
-        img_byte_arr = img_byte_arr.getvalue()
-        
-        # Convert to base64
-        img_base64 = base64.b64encode(img_byte_arr).decode()
-        
-        # Get page info
-        page_info = {
-            "width": page.rect.width,
-            "height": page.rect.height,
-            "rotation": page.rotation,
-            "rendered_width": pix.width,
-            "rendered_height": pix.height
-        }
-        
-        return json.dumps({
-            "success": True,
-            "image": img_base64,
-            "page_info": page_info
-        })
-        
+        return json.dumps(render_document_page(doc, page_num, zoom))
     except Exception as e:
         return json.dumps({
             "success": False,
@@ -60,22 +137,11 @@ def render_page(pdf_path, page_num, zoom=1.0):
         if 'doc' in locals():
             doc.close()
 
+
 def get_document_info(pdf_path):
     try:
         doc = fitz.open(pdf_path)
-        info = {
-            "page_count": doc.page_count,
-            "metadata": doc.metadata,
-            "is_encrypted": doc.is_encrypted,
-            "page_sizes": [
-                {"width": page.rect.width, "height": page.rect.height}
-                for page in doc
-            ]
-        }
-        return json.dumps({
-            "success": True,
-            "info": info
-        })
+        return json.dumps(document_info(doc))
     except Exception as e:
         return json.dumps({
             "success": False,
@@ -85,10 +151,168 @@ def get_document_info(pdf_path):
         if 'doc' in locals():
             doc.close()
 
+
+def handle_request(request):
+    # Returns the response header and an optional binary payload
+    command = request.get("command")
+    pdf_path = request.get("path")
+
+    if command == "render":
+        doc = open_document(pdf_path)
+        pix, page_info = render_document_pixmap(
+            doc, int(request["page"]), float(request.get("zoom", 1.0)),
+            int(request.get("rotation", 0)), request.get("clip"))
+
+        # Large frames skip the pipe and go through a shared memory segment
+        shm_dir = request.get("shm_dir")
+        if shm_dir and pix.width * pix.height * 4 >= int(request.get("shm_min_bytes", 0)):
+            if not pix.alpha:
+                pix = fitz.Pixmap(pix, 1)
+            return {
+                "success": True,
+                "format": "rgba",
+                "width": pix.width,
+                "height": pix.height,
+                "stride": pix.stride,
+                "transport": "shm",
+                "shm_path": write_shared_frame(pix, shm_dir, request.get("id")),
+                "page_info": page_info
+            }, None
+
+        payload = pix.samples_mv
+        compression = "none"
+        if request.get("compress"):
+            payload = zlib.compress(payload, 1)
+            compression = "deflate"
+
+        return {
+            "success": True,
+            "format": "rgb" if pix.n == 3 else "rgba",
+            "width": pix.width,
+            "height": pix.height,
+            "stride": pix.stride,
+            "compression": compression,
+            "transport": "pipe",
+            "page_info": page_info
+        }, payload
+    elif command == "info":
+        return document_info(open_document(pdf_path)), None
+    elif command == "close":
+        close_document(pdf_path)
+        return {"success": True}, None
+    return {
+        "success": False,
+        "error": f"Unknown command: {command}"
+    }, None
+
+
+def write_shared_frame(pix, shm_dir, request_id):
+    # The reader maps the file and unlinks it once it holds the mapping
+    path = os.path.join(shm_dir, f"pdfxplorer-{os.getpid()}-{request_id}.rgba")
+    samples = pix.samples_mv
+    with open(path, "w+b") as segment:
+        segment.truncate(len(samples))
+        with mmap.mmap(segment.fileno(), len(samples)) as mapped:
+            mapped[:] = samples
+    return path
+
+
+def write_frame(out, header, payload):
+    # Frame: 4-byte big-endian header length, JSON header, raw payload bytes
+    header["payload_length"] = len(payload) if payload is not None else 0
+    header_bytes = json.dumps(header).encode("utf-8")
+    out.write(struct.pack(">I", len(header_bytes)))
+    out.write(header_bytes)
+    if payload is not None:
+        out.write(payload)
+    out.flush()
+
+
+def read_requests(requests, cancelled, lock):
+    # Runs on its own thread so cancels are seen while a render is in progress
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+
+        try:
+            request = json.loads(line)
+        except ValueError as e:
+            requests.put(({}, e))
+            continue
+
+        if request.get("command") == "cancel":
+            with lock:
+                cancelled.add(request.get("target"))
+        else:
+            requests.put((request, None))
+    requests.put(None)
+
+
+def serve():
+    # Persistent worker: one JSON request per line on stdin,
+    # one binary frame per response on stdout, matched by "id"
+    out = sys.stdout.buffer
+    requests = queue.Queue()
+    cancelled = set()
+    lock = threading.Lock()
+
+    reader = threading.Thread(target=read_requests, args=(requests, cancelled, lock), daemon=True)
+    reader.start()
+
+    while True:
+        item = requests.get()
+        if item is None:
+            break
+
+        request, parse_error = item
+        request_id = request.get("id")
+        with lock:
+            is_cancelled = request_id in cancelled
+            cancelled.discard(request_id)
+            # The sender numbers requests as it writes them, so they arrive and are answered in id order:
+            # a cancel for an older id came too late for a request already answered and can be forgotten
+            if isinstance(request_id, int):
+                cancelled.difference_update(
+                    [target for target in cancelled if isinstance(target, int) and target < request_id])
+
+        if parse_error is not None:
+            header, payload = {
+                "success": False,
+                "error": str(parse_error)
+            }, None
+        elif is_cancelled:
+            # Skipped before any work was done
+            header, payload = {
+                "success": False,
+                "cancelled": True,
+                "error": "Request was cancelled"
+            }, None
+        else:
+            try:
+                header, payload = handle_request(request)
+            except Exception as e:
+                header, payload = {
+                    "success": False,
+                    "error": str(e)
+                }, None
+
+        header["id"] = request_id
+        write_frame(out, header, payload)
+
+    for doc, _ in _open_documents.values():
+        doc.close()
+
+
 if __name__ == "__main__":
     command = sys.argv[1]
+
+    if command == "serve":
+        serve()
+        sys.exit(0)
+
     pdf_path = sys.argv[2]
-    
+
     if command == "render":
         page_num = int(sys.argv[3])
         zoom = float(sys.argv[4]) if len(sys.argv) > 4 else 1.0
@@ -99,4 +323,4 @@ if __name__ == "__main__":
         print(json.dumps({
             "success": False,
             "error": f"Unknown command: {command}"
-        })) 
\ No newline at end of file
+        }))
@@ -0,0 +1,71 @@
+package com.pdfxplorer.pdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DocumentHandlePoolTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void leastRecentlyUsedFileIsClosedBeyondCapacity() throws IOException {
+        File first = writePdf("first.pdf");
+        File second = writePdf("second.pdf");
+        try (DocumentHandlePool pool = new DocumentHandlePool(1, 1)) {
+            PDDocument document = leaseAndReturn(pool, first);
+            assertSame(document, leaseAndReturn(pool, first));
+
+            leaseAndReturn(pool, second);
+            assertNotSame(document, leaseAndReturn(pool, first));
+        }
+    }
+
+    @Test
+    void pinnedFileKeepsItsHandlesBeyondCapacity() throws IOException {
+        File first = writePdf("first.pdf");
+        File second = writePdf("second.pdf");
+        File third = writePdf("third.pdf");
+        try (DocumentHandlePool pool = new DocumentHandlePool(1, 1)) {
+            pool.pin(first);
+            pool.pin(first);
+            PDDocument document = leaseAndReturn(pool, first);
+            leaseAndReturn(pool, second);
+            leaseAndReturn(pool, third);
+            assertSame(document, leaseAndReturn(pool, first));
+
+            // Pins are counted, so the file stays until the last one goes
+            pool.unpin(first);
+            leaseAndReturn(pool, second);
+            assertSame(document, leaseAndReturn(pool, first));
+
+            // Handles are closed to make room when another file is opened
+            pool.unpin(first);
+            leaseAndReturn(pool, third);
+            assertNotSame(document, leaseAndReturn(pool, first));
+        }
+    }
+
+    private static PDDocument leaseAndReturn(DocumentHandlePool pool, File file) throws IOException {
+        try (DocumentHandlePool.Lease lease = pool.lease(file)) {
+            return lease.getDocument();
+        }
+    }
+
+    private File writePdf(String name) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.save(file);
+        }
+        return file;
+    }
+}
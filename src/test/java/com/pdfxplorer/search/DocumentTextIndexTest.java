@@ -0,0 +1,205 @@
+package com.pdfxplorer.search;
+
+import com.pdfxplorer.pdf.DocumentHandlePool;
+import com.pdfxplorer.search.DocumentTextIndex.PageText;
+import com.pdfxplorer.service.PdfReaderService;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DocumentTextIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void pageTextSplitsWordsAndLines() {
+        // "ab cd" on one line, "ef" on the next, one glyph per letter
+        PageText page = page("ab cd\nef", 0, 1, 3, 4, 6, 7);
+
+        assertEquals(3, page.getWordCount());
+        assertWord(page, 0, 0, 2);
+        assertWord(page, 1, 2, 4);
+        assertWord(page, 2, 4, 6);
+        assertEquals(2, page.getLineCount());
+        assertEquals(0, page.getLineStart(0));
+        assertEquals(2, page.getLineEnd(0));
+        assertEquals(2, page.getLineStart(1));
+        assertEquals(3, page.getLineEnd(1));
+    }
+
+    @Test
+    void blankGlyphsEndWordsWithoutStartingOne() {
+        // The space between the words is a glyph of its own, as some PDFs draw it
+        PageText page = page(" ab cd", 0, 1, 2, 3, 4, 5);
+
+        assertEquals(2, page.getWordCount());
+        assertWord(page, 0, 1, 3);
+        assertWord(page, 1, 4, 6);
+        assertEquals(1, page.getLineCount());
+    }
+
+    @Test
+    void emptyPageHasNoWordsOrLines() {
+        PageText page = page("");
+
+        assertEquals(0, page.getGlyphCount());
+        assertEquals(0, page.getWordCount());
+        assertEquals(0, page.getLineCount());
+        assertEquals(0, page.glyphAtOrAfter(0));
+        assertEquals(0, page.glyphBoxes(0, 0).length);
+    }
+
+    @Test
+    void offsetsMapToTheGlyphsCoveringThem() {
+        // The ligature "fi" is one glyph over two characters
+        String text = "a fib";
+        int[] charStart = { 0, 2, 4 };
+        int[] charEnd = { 1, 4, 5 };
+        PageText page = new PageText(text, charStart, charEnd, boxes(3));
+
+        assertEquals(0, page.glyphAtOrAfter(0));
+        // A separator maps to the next glyph
+        assertEquals(1, page.glyphAtOrAfter(1));
+        assertEquals(1, page.glyphAtOrAfter(2));
+        assertEquals(1, page.glyphAtOrAfter(3));
+        assertEquals(2, page.glyphAtOrAfter(4));
+        assertEquals(3, page.glyphAtOrAfter(5));
+
+        assertArrayEquals(box(1), page.glyphBoxes(3, 4));
+        assertArrayEquals(concat(box(1), box(2)), page.glyphBoxes(2, 5));
+        assertArrayEquals(concat(box(0), box(1)), page.glyphBoxes(0, 3));
+        assertEquals(0, page.glyphBoxes(1, 2).length);
+    }
+
+    @Test
+    void extractPageMatchesTheWholeDocumentPass() throws IOException {
+        File pdfFile = writePdf(tempDir.resolve("small.pdf"), 5);
+        try (PDDocument document = PdfReaderService.loadDocument(pdfFile)) {
+            DocumentTextIndex index = DocumentTextIndex.build(document);
+            for (int i = 0; i < index.getPageCount(); i++) {
+                assertSamePage(index.getPage(i), DocumentTextIndex.extractPage(document, i));
+            }
+        }
+    }
+
+    @Test
+    void shardedExtractionMatchesSequentialPass() throws IOException {
+        int pageCount = 4 * DocumentTextIndex.MIN_PAGES_PER_SHARD + 3;
+        File pdfFile = writePdf(tempDir.resolve("large.pdf"), pageCount);
+        DocumentTextIndex sequential;
+        try (PDDocument document = PdfReaderService.loadDocument(pdfFile)) {
+            sequential = DocumentTextIndex.build(document);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (DocumentHandlePool documents = new DocumentHandlePool(4)) {
+            assertEquals(4, DocumentTextIndex.shardCount(pageCount, pool.getParallelism()));
+            PageText[] sharded = new PageText[pageCount];
+            DocumentTextIndex.extractMissing(pdfFile, sharded, pool, documents);
+            for (int i = 0; i < pageCount; i++) {
+                assertSamePage(sequential.getPage(i), sharded[i]);
+            }
+
+            // Pages already there are kept, and the gaps between them filled in
+            PageText[] partial = new PageText[pageCount];
+            for (int i = 0; i < pageCount; i += 3) {
+                partial[i] = sharded[i];
+            }
+            DocumentTextIndex.extractMissing(pdfFile, partial, pool, documents);
+            for (int i = 0; i < pageCount; i++) {
+                if (i % 3 == 0) {
+                    assertSame(sharded[i], partial[i]);
+                }
+                assertSamePage(sequential.getPage(i), partial[i]);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertWord(PageText page, int word, int start, int end) {
+        assertEquals(start, page.getWordStart(word));
+        assertEquals(end, page.getWordEnd(word));
+    }
+
+    private static void assertSamePage(PageText expected, PageText actual) {
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getGlyphCount(), actual.getGlyphCount());
+        assertArrayEquals(expected.glyphBoxes(0, expected.getText().length()),
+                actual.glyphBoxes(0, actual.getText().length()));
+        for (int g = 0; g < expected.getGlyphCount(); g++) {
+            assertEquals(expected.getCharStart(g), actual.getCharStart(g));
+            assertEquals(expected.getCharEnd(g), actual.getCharEnd(g));
+        }
+        assertEquals(expected.getWordCount(), actual.getWordCount());
+        assertEquals(expected.getLineCount(), actual.getLineCount());
+    }
+
+    /**
+     * A page with one single-character glyph at each of the given offsets.
+     */
+    private static PageText page(String text, int... glyphOffsets) {
+        int[] charEnd = new int[glyphOffsets.length];
+        for (int g = 0; g < glyphOffsets.length; g++) {
+            charEnd[g] = glyphOffsets[g] + 1;
+        }
+        return new PageText(text, glyphOffsets, charEnd, boxes(glyphOffsets.length));
+    }
+
+    private static float[] boxes(int glyphCount) {
+        float[] boxes = new float[glyphCount * 4];
+        for (int g = 0; g < glyphCount; g++) {
+            System.arraycopy(box(g), 0, boxes, g * 4, 4);
+        }
+        return boxes;
+    }
+
+    private static float[] box(int glyph) {
+        return new float[] { glyph * 10, 5, 8, 12 };
+    }
+
+    private static float[] concat(float[] first, float[] second) {
+        float[] both = new float[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+
+    /**
+     * Writes a PDF whose pages each have a few lines of text naming the page.
+     */
+    private static File writePdf(Path target, int pageCount) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (int i = 0; i < pageCount; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(font, 12);
+                    content.newLineAtOffset(72, 700);
+                    for (int line = 0; line <= i % 4; line++) {
+                        content.showText("Page " + (i + 1) + " line " + (line + 1) + " of the sharding test");
+                        content.newLineAtOffset(0, -16);
+                    }
+                    content.endText();
+                }
+            }
+            document.save(target.toFile());
+        }
+        return target.toFile();
+    }
+}
@@ -0,0 +1,166 @@
+package com.pdfxplorer.search;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void segmentRoundTripsThroughItsEncoding() throws IOException {
+        Map<String, List<int[]>> terms = new HashMap<>();
+        List<int[]> common = new ArrayList<>();
+        common.add(new int[] { 0, 0, 1, 127, 128 });
+        // Pages and positions past one and two varint bytes
+        common.add(new int[] { 300, 16383, 16384, 2_000_000 });
+        terms.put("common", common);
+        List<int[]> unicode = new ArrayList<>();
+        unicode.add(new int[] { 7, 42 });
+        terms.put("straße", unicode);
+
+        Path target = tempDir.resolve("segments").resolve("0.seg");
+        LibraryIndex.writeSegment(target, new LibraryIndex.Segment(301, terms));
+        LibraryIndex.Segment read = LibraryIndex.readSegment(target);
+
+        assertEquals(301, read.getPageCount());
+        assertEquals(terms.keySet(), read.getTerms().keySet());
+        for (Map.Entry<String, List<int[]>> term : terms.entrySet()) {
+            List<int[]> readEntries = read.getTerms().get(term.getKey());
+            assertEquals(term.getValue().size(), readEntries.size());
+            for (int i = 0; i < readEntries.size(); i++) {
+                assertArrayEquals(term.getValue().get(i), readEntries.get(i));
+            }
+        }
+    }
+
+    @Test
+    void updateReindexesOnlyChangedFiles() throws IOException {
+        Path library = Files.createDirectories(tempDir.resolve("library"));
+        File first = writePdf(library.resolve("first.pdf"), "apple banana");
+        writePdf(library.resolve("second.pdf"), "banana cherry");
+        LibraryIndex index = newIndex(library);
+
+        assertEquals(2, index.update());
+        assertEquals(0, index.update());
+        assertEquals(2, index.search("banana", 10).size());
+
+        // A new version with a different size and modification time
+        long lastModified = first.lastModified();
+        writePdf(first.toPath(), "apple durian durian");
+        assertTrue(first.setLastModified(lastModified + 10_000));
+        assertEquals(1, index.update());
+        assertEquals(1, index.search("banana", 10).size());
+        assertEquals(1, index.search("durian", 10).size());
+
+        // Touched only: same size, new modification time
+        assertTrue(first.setLastModified(lastModified + 20_000));
+        assertEquals(1, index.update());
+        assertEquals(1, index.search("durian", 10).size());
+
+        Files.delete(first.toPath());
+        assertEquals(0, index.update());
+        assertEquals(0, index.search("durian", 10).size());
+        assertEquals(1, index.getDocumentCount());
+    }
+
+    @Test
+    void storedIndexIsReusedAfterLoading() throws IOException {
+        Path library = Files.createDirectories(tempDir.resolve("library"));
+        writePdf(library.resolve("first.pdf"), "apple banana", "cherry");
+        writePdf(library.resolve("second.pdf"), "banana");
+        assertEquals(2, newIndex(library).update());
+
+        LibraryIndex reopened = newIndex(library);
+        reopened.load();
+        assertEquals(2, reopened.getDocumentCount());
+        assertEquals(0, reopened.update());
+
+        List<LibraryIndex.PageHit> hits = reopened.search("cherry", 10);
+        assertEquals(1, hits.size());
+        assertEquals("first.pdf", hits.get(0).getDocument().getFileName().toString());
+        assertEquals(1, hits.get(0).getPageIndex());
+    }
+
+    @Test
+    void pagesRankByTermFrequency() throws IOException {
+        Path library = Files.createDirectories(tempDir.resolve("library"));
+        writePdf(library.resolve("ranked.pdf"), "alpha beta", "alpha alpha alpha beta", "gamma");
+        writePdf(library.resolve("other.pdf"), "alpha alpha gamma");
+        LibraryIndex index = newIndex(library);
+        index.update();
+
+        List<LibraryIndex.PageHit> hits = index.search("alpha", 10);
+        assertEquals(3, hits.size());
+        assertHit(hits.get(0), "ranked.pdf", 1);
+        assertHit(hits.get(1), "other.pdf", 0);
+        assertHit(hits.get(2), "ranked.pdf", 0);
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).getScore() > hits.get(i).getScore());
+        }
+
+        // The limit keeps the best pages, not the first found
+        List<LibraryIndex.PageHit> best = index.search("alpha", 1);
+        assertEquals(1, best.size());
+        assertHit(best.get(0), "ranked.pdf", 1);
+
+        // Every word must be on the page, and in order for a phrase
+        assertEquals(2, index.search("alpha beta", 10).size());
+        assertEquals(2, index.search("\"alpha beta\"", 10).size());
+        assertEquals(0, index.search("\"beta alpha\"", 10).size());
+        assertEquals(1, index.search("\"alpha gamma\"", 10).size());
+        assertEquals(0, index.search("alpha missing", 10).size());
+
+        // Queries are case folded like the indexed text
+        assertEquals(3, index.search("ALPHA", 10).size());
+    }
+
+    private LibraryIndex newIndex(Path library) {
+        return new LibraryIndex(library, tempDir.resolve("store"), 2);
+    }
+
+    private static void assertHit(LibraryIndex.PageHit hit, String fileName, int pageIndex) {
+        assertEquals(fileName, hit.getDocument().getFileName().toString());
+        assertEquals(pageIndex, hit.getPageIndex());
+    }
+
+    /**
+     * Writes a PDF with one line of text per page.
+     */
+    static File writePdf(Path target, String... pages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (String text : pages) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(font, 12);
+                    content.newLineAtOffset(72, 700);
+                    content.showText(text);
+                    content.endText();
+                }
+            }
+            document.save(target.toFile());
+        }
+        return target.toFile();
+    }
+}
@@ -0,0 +1,126 @@
+package com.pdfxplorer.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MultiPatternMatcherTest {
+    // By end, then start, then pattern, independent of the order matches are reported in
+    private static final Comparator<String> MATCH_ORDER = Comparator
+            .comparingInt((String match) -> Integer.parseInt(match.substring(match.indexOf('-') + 1)))
+            .thenComparingInt(match -> Integer.parseInt(match.substring(match.indexOf(':') + 1, match.indexOf('-'))))
+            .thenComparingInt(match -> Integer.parseInt(match.substring(0, match.indexOf(':'))));
+
+    @Test
+    void overlappingOccurrencesAreAllReported() {
+        assertMatches(List.of("aa"), "aaaa", "0:0-2", "0:1-3", "0:2-4");
+        assertMatches(List.of("aba"), "ababa", "0:0-3", "0:2-5");
+    }
+
+    @Test
+    void patternsThatAreSuffixesOfOthersMatchToo() {
+        // The classic example: "he" ends inside "she" and starts "hers"
+        assertMatches(List.of("he", "she", "his", "hers"), "ushers", "1:1-4", "0:2-4", "3:2-6");
+        // A suffix reached only through a failure link of a longer pattern that does not complete
+        assertMatches(List.of("abcd", "bc", "c"), "abce", "1:1-3", "2:2-3");
+        assertMatches(List.of("a", "aa", "aaa"), "aaa", "0:0-1", "0:1-2", "1:0-2", "0:2-3", "1:1-3", "2:0-3");
+    }
+
+    @Test
+    void duplicateAndEmptyPatternsKeepTheirIndex() {
+        assertMatches(List.of("", "ab", "ab"), "xaby", "1:1-3", "2:1-3");
+        assertMatches(List.of(""), "abc");
+    }
+
+    @Test
+    void caseIsFoldedInPatternsAndText() {
+        assertMatches(List.of("Dolor"), "DOLOR dolor DoLoR", "0:0-5", "0:6-11", "0:12-17");
+        // Final and medial sigma both fold to the same letter as the capital
+        assertMatches(List.of("ΟΔΟΣ"), "οδος οδοσ", "0:0-4", "0:5-9");
+        // Supplementary code points fold too; offsets stay in chars
+        assertMatches(List.of("𐐨b"), "a𐐀B", "0:1-4");
+    }
+
+    @Test
+    void stepAdvancesLikeFind() {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(List.of("he", "she"));
+        int state = MultiPatternMatcher.ROOT;
+        state = matcher.step(state, 's');
+        state = matcher.step(state, 'H');
+        assertEquals(0, matcher.matchesAt(state).length);
+        state = matcher.step(state, 'e');
+        int[] found = matcher.matchesAt(state).clone();
+        Arrays.sort(found);
+        assertEquals("[0, 1]", Arrays.toString(found));
+        assertEquals(3, matcher.getMaxPatternLength());
+        assertEquals(2, matcher.getPatternLength(0));
+    }
+
+    @Test
+    void matchesNaiveIndexOfOnRandomText() {
+        Random random = new Random(7);
+        String alphabet = "abAB c";
+        for (int round = 0; round < 200; round++) {
+            List<String> patterns = new ArrayList<>();
+            for (int p = random.nextInt(8) + 1; p > 0; p--) {
+                patterns.add(randomString(random, alphabet, random.nextInt(6)));
+            }
+            String text = randomString(random, alphabet, random.nextInt(500));
+            assertEquals(naive(patterns, text), found(new MultiPatternMatcher(patterns), text),
+                    patterns + " in " + text);
+        }
+    }
+
+    private static void assertMatches(List<String> patterns, String text, String... expected) {
+        List<String> sorted = new ArrayList<>(Arrays.asList(expected));
+        sorted.sort(MATCH_ORDER);
+        assertEquals(sorted, found(new MultiPatternMatcher(patterns), text));
+        assertEquals(sorted, naive(patterns, text));
+    }
+
+    private static List<String> found(MultiPatternMatcher matcher, String text) {
+        List<String> matches = new ArrayList<>();
+        matcher.find(text, (pattern, start, end) -> matches.add(pattern + ":" + start + "-" + end));
+        matches.sort(MATCH_ORDER);
+        return matches;
+    }
+
+    /**
+     * Every occurrence of every pattern by an indexOf loop over the folded text.
+     */
+    private static List<String> naive(List<String> patterns, String text) {
+        String foldedText = fold(text);
+        List<String> matches = new ArrayList<>();
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = fold(patterns.get(p));
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            for (int start = foldedText.indexOf(pattern); start >= 0; start = foldedText.indexOf(pattern, start + 1)) {
+                matches.add(p + ":" + start + "-" + (start + pattern.length()));
+            }
+        }
+        matches.sort(MATCH_ORDER);
+        return matches;
+    }
+
+    private static String fold(String text) {
+        StringBuilder folded = new StringBuilder();
+        text.codePoints().forEach(codePoint -> folded.appendCodePoint(MultiPatternMatcher.fold(codePoint)));
+        return folded.toString();
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder string = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            string.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return string.toString();
+    }
+}
@@ -0,0 +1,201 @@
+package com.pdfxplorer.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class GlyphGridTest {
+    // 40 glyphs of 5 x 10 points per line, 20 lines: 800 glyphs on a 10 x 10 grid of 20 x 20 point cells
+    private static final int GLYPHS_PER_LINE = 40;
+    private static final int LINES = 20;
+    private static final float GLYPH_WIDTH = 5;
+    private static final float GLYPH_HEIGHT = 10;
+    private static final float CELL_SIZE = 20;
+
+    @Test
+    void queryMatchesFullScanOnTextLayout() {
+        float[] boxes = textLayout();
+        GlyphGrid grid = GlyphGrid.build(boxes);
+        Random random = new Random(17);
+        for (int i = 0; i < 2000; i++) {
+            double[] rectangle = randomRectangle(random);
+            assertQuery(grid, boxes, rectangle);
+        }
+    }
+
+    @Test
+    void queryMatchesFullScanOnCellBoundaries() {
+        float[] boxes = textLayout();
+        GlyphGrid grid = GlyphGrid.build(boxes);
+        Random random = new Random(23);
+        for (int i = 0; i < 2000; i++) {
+            // Edges on cell and glyph boundaries, where a glyph only touches the rectangle
+            double[] rectangle = new double[4];
+            for (int c = 0; c < 4; c++) {
+                double step = random.nextBoolean() ? CELL_SIZE : GLYPH_WIDTH;
+                rectangle[c] = step * (random.nextInt((int) (240 / step)) - (int) (20 / step));
+            }
+            assertQuery(grid, boxes, rectangle);
+        }
+    }
+
+    @Test
+    void queryReportsGlyphsSpanningCellsOnce() {
+        // Overlapping boxes of all sizes, many covering several cells
+        Random random = new Random(31);
+        float[] boxes = new float[500 * 4];
+        for (int g = 0; g < 500; g++) {
+            boxes[g * 4] = random.nextFloat() * 200;
+            boxes[g * 4 + 1] = random.nextFloat() * 200;
+            boxes[g * 4 + 2] = random.nextFloat() * (random.nextInt(10) == 0 ? 120 : 12);
+            boxes[g * 4 + 3] = random.nextFloat() * (random.nextInt(10) == 0 ? 120 : 12);
+        }
+        GlyphGrid grid = GlyphGrid.build(boxes);
+        for (int i = 0; i < 2000; i++) {
+            assertQuery(grid, boxes, randomRectangle(random));
+        }
+    }
+
+    @Test
+    void queryOnEmptyGridFindsNothing() {
+        GlyphGrid grid = GlyphGrid.build(new float[0]);
+        assertEquals(0, grid.query(-10, -10, 10, 10).length);
+    }
+
+    @Test
+    void selectionOnEmptyGridSelectsNothing() {
+        GlyphGrid.Selection selection = GlyphGrid.build(new float[0]).newSelection();
+        assertFalse(selection.update(-10, -10, 10, 10));
+        assertEquals(0, selection.getSelectedCount());
+    }
+
+    @Test
+    void selectionFollowsADragLikeAFullRecompute() {
+        float[] boxes = textLayout();
+        GlyphGrid grid = GlyphGrid.build(boxes);
+        Random random = new Random(41);
+        for (int drag = 0; drag < 50; drag++) {
+            GlyphGrid.Selection selection = grid.newSelection();
+            int[] previous = new int[0];
+            // The anchor stays put while the other corner wanders, growing and shrinking the rectangle
+            double anchorX = random.nextDouble() * 240 - 20;
+            double anchorY = random.nextDouble() * 240 - 20;
+            double x = anchorX;
+            double y = anchorY;
+            for (int step = 0; step < 100; step++) {
+                double stride = random.nextInt(5) == 0 ? 60 : 8;
+                x += (random.nextDouble() - 0.5) * stride;
+                y += (random.nextDouble() - 0.5) * stride;
+                if (random.nextInt(4) == 0) {
+                    // Snap to a cell boundary
+                    x = Math.round(x / CELL_SIZE) * CELL_SIZE;
+                    y = Math.round(y / CELL_SIZE) * CELL_SIZE;
+                }
+                previous = assertUpdate(selection, boxes, previous, anchorX, anchorY, x, y);
+            }
+        }
+    }
+
+    @Test
+    void selectionJumpingBetweenRectanglesMatchesAFullRecompute() {
+        float[] boxes = textLayout();
+        GlyphGrid grid = GlyphGrid.build(boxes);
+        GlyphGrid.Selection selection = grid.newSelection();
+        Random random = new Random(43);
+        int[] previous = new int[0];
+        for (int i = 0; i < 2000; i++) {
+            double[] rectangle = randomRectangle(random);
+            previous = assertUpdate(selection, boxes, previous, rectangle[0], rectangle[1], rectangle[2],
+                    rectangle[3]);
+            if (random.nextInt(50) == 0) {
+                selection.clear();
+                assertEquals(0, selection.getSelectedCount());
+                previous = new int[0];
+            }
+        }
+    }
+
+    @Test
+    void selectionShrinkingInsideItselfDeselects() {
+        float[] boxes = textLayout();
+        GlyphGrid.Selection selection = GlyphGrid.build(boxes).newSelection();
+        int[] previous = assertUpdate(selection, boxes, new int[0], 0, 0, 200, 200);
+        assertEquals(GLYPHS_PER_LINE * LINES, previous.length);
+        // Each step moves one edge inwards, so most cells lie inside both rectangles
+        previous = assertUpdate(selection, boxes, previous, 0, 0, 200, 190);
+        previous = assertUpdate(selection, boxes, previous, 0, 0, 187.5, 190);
+        previous = assertUpdate(selection, boxes, previous, 21, 0, 187.5, 190);
+        previous = assertUpdate(selection, boxes, previous, 21, 40, 187.5, 190);
+        previous = assertUpdate(selection, boxes, previous, 21, 40, 40, 60);
+        previous = assertUpdate(selection, boxes, previous, 21, 40, 200, 200);
+        assertUpdate(selection, boxes, previous, 300, 300, 400, 400);
+    }
+
+    private static int[] assertUpdate(GlyphGrid.Selection selection, float[] boxes, int[] previous,
+            double x1, double y1, double x2, double y2) {
+        boolean changed = selection.update(x1, y1, x2, y2);
+        int[] expected = fullScan(boxes, x1, y1, x2, y2);
+        String rectangle = Arrays.toString(new double[] { x1, y1, x2, y2 });
+        assertArrayEquals(expected, selection.getSelectedGlyphs(), rectangle);
+        assertEquals(expected.length, selection.getSelectedCount(), rectangle);
+        for (int g = 0; g < boxes.length / 4; g++) {
+            assertEquals(Arrays.binarySearch(expected, g) >= 0, selection.isSelected(g), rectangle);
+        }
+        assertEquals(!Arrays.equals(previous, expected), changed, rectangle);
+        return expected;
+    }
+
+    private static void assertQuery(GlyphGrid grid, float[] boxes, double[] rectangle) {
+        assertArrayEquals(fullScan(boxes, rectangle[0], rectangle[1], rectangle[2], rectangle[3]),
+                grid.query(rectangle[0], rectangle[1], rectangle[2], rectangle[3]), Arrays.toString(rectangle));
+    }
+
+    /**
+     * Glyphs intersecting the rectangle, found by testing every one of them.
+     */
+    private static int[] fullScan(float[] boxes, double x1, double y1, double x2, double y2) {
+        double left = Math.min(x1, x2);
+        double top = Math.min(y1, y2);
+        double right = Math.max(x1, x2);
+        double bottom = Math.max(y1, y2);
+        return IntStream.range(0, boxes.length / 4)
+                .filter(g -> boxes[g * 4] < right && boxes[g * 4] + boxes[g * 4 + 2] > left
+                        && boxes[g * 4 + 1] < bottom && boxes[g * 4 + 1] + boxes[g * 4 + 3] > top)
+                .toArray();
+    }
+
+    /**
+     * Either corner may come first; rectangles reach past the page on every side.
+     */
+    private static double[] randomRectangle(Random random) {
+        double[] rectangle = new double[4];
+        for (int c = 0; c < 4; c++) {
+            rectangle[c] = random.nextDouble() * 260 - 30;
+        }
+        if (random.nextInt(10) == 0) {
+            // Degenerate: a point or a line
+            rectangle[2] = rectangle[0];
+        }
+        return rectangle;
+    }
+
+    private static float[] textLayout() {
+        float[] boxes = new float[GLYPHS_PER_LINE * LINES * 4];
+        for (int line = 0; line < LINES; line++) {
+            for (int column = 0; column < GLYPHS_PER_LINE; column++) {
+                int b = (line * GLYPHS_PER_LINE + column) * 4;
+                boxes[b] = column * GLYPH_WIDTH;
+                boxes[b + 1] = line * GLYPH_HEIGHT;
+                boxes[b + 2] = GLYPH_WIDTH;
+                boxes[b + 3] = GLYPH_HEIGHT;
+            }
+        }
+        return boxes;
+    }
+}
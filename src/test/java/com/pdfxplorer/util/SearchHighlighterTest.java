@@ -0,0 +1,81 @@
+package com.pdfxplorer.util;
+
+import com.pdfxplorer.search.DocumentTextIndex;
+import com.pdfxplorer.search.DocumentTextIndex.PageText;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchHighlighterTest {
+    @Test
+    void matchOnOneLineGetsOneBox() throws IOException {
+        PageText page = extract("alpha beta gamma", "delta epsilon");
+        List<SearchHighlighter.SearchResult> results = new SearchHighlighter("beta").search(page);
+
+        assertEquals(1, results.size());
+        SearchHighlighter.SearchResult beta = results.get(0);
+        SearchHighlighter.SearchResult line = new SearchHighlighter("alpha beta gamma").search(page).get(0);
+        assertTrue(beta.getX() > line.getX());
+        assertTrue(beta.getX() + beta.getWidth() < line.getX() + line.getWidth());
+    }
+
+    @Test
+    void matchWrappingAcrossLinesGetsABoxPerLine() throws IOException {
+        PageText page = extract("alpha beta gamma", "delta epsilon");
+        List<SearchHighlighter.SearchResult> results = new SearchHighlighter("gamma delta").search(page);
+
+        assertEquals(2, results.size());
+        SearchHighlighter.SearchResult gamma = new SearchHighlighter("gamma").search(page).get(0);
+        SearchHighlighter.SearchResult delta = new SearchHighlighter("delta").search(page).get(0);
+        assertSameBox(gamma, results.get(0));
+        assertSameBox(delta, results.get(1));
+        assertTrue(results.get(1).getY() > results.get(0).getY() + results.get(0).getHeight() / 2);
+    }
+
+    @Test
+    void termsKeepTheirIndex() throws IOException {
+        PageText page = extract("alpha beta gamma", "delta epsilon");
+        List<SearchHighlighter.SearchResult> results = new SearchHighlighter("EPSILON", "beta").search(page);
+
+        assertEquals(2, results.size());
+        assertEquals(1, results.get(0).getTermIndex());
+        assertEquals(0, results.get(1).getTermIndex());
+    }
+
+    private static void assertSameBox(SearchHighlighter.SearchResult expected, SearchHighlighter.SearchResult actual) {
+        assertEquals(expected.getX(), actual.getX(), 0.01);
+        assertEquals(expected.getY(), actual.getY(), 0.01);
+        assertEquals(expected.getWidth(), actual.getWidth(), 0.01);
+        assertEquals(expected.getHeight(), actual.getHeight(), 0.01);
+    }
+
+    /**
+     * Extracts a page showing each of the lines below the previous one.
+     */
+    private static PageText extract(String... lines) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.beginText();
+                content.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+                content.newLineAtOffset(72, 700);
+                for (String line : lines) {
+                    content.showText(line);
+                    content.newLineAtOffset(0, -16);
+                }
+                content.endText();
+            }
+            return DocumentTextIndex.extractPage(document, 0);
+        }
+    }
+}